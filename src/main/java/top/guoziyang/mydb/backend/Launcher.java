@@ -6,6 +6,7 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import top.guoziyang.mydb.backend.dm.DMOptions;
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.server.Server;
 import top.guoziyang.mydb.backend.tbm.TableManager;
@@ -20,6 +21,17 @@ public class Launcher {
     public static final int port = 9999;
 
     public static final long DEFALUT_MEM = (1<<20)*64;
+    // 默认每秒后台写回一次脏页
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    // 默认数据文件每次增长 8MB
+    public static final long DEFAULT_EXTENT = (1<<20)*8;
+    // 默认顺序访问时一次预读 32 页
+    public static final int DEFAULT_READ_AHEAD = 32;
+    // 默认每分钟，或者每写入 64MB 日志做一次检查点
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 60000;
+    public static final long DEFAULT_CHECKPOINT_LOG_SIZE = (1<<20)*64;
+    // 默认用所有 CPU 并行重做
+    public static final int DEFAULT_REDO_THREADS = Runtime.getRuntime().availableProcessors();
     public static final long KB = 1 << 10;
 	public static final long MB = 1 << 20;
 	public static final long GB = 1 << 30;
@@ -29,32 +41,84 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("io", true, "-io channel|direct");
+        options.addOption("flush", true, "-flush 1000 (ms, 0 to disable background page writer)");
+        options.addOption("extent", true, "-extent 8MB (file growth step, 0 to disable preallocation)");
+        options.addOption("readahead", true, "-readahead 32 (pages, 0 to disable)");
+        options.addOption("groupcommit", true, "-groupcommit 0 (us to wait for more log records before each fsync)");
+        options.addOption("checkpoint", true, "-checkpoint 60000 (ms between checkpoints, 0 to disable)");
+        options.addOption("checkpointlog", true, "-checkpointlog 64MB (log written since the last checkpoint, 0 to disable)");
+        options.addOption("redothreads", true, "-redothreads 4 (threads replaying the log in crash recovery)");
+        options.addOption("logsegment", true, "-logsegment 16MB (size of each log segment, only used with -create)");
+        options.addOption("pagesize", true, "-pagesize 8KB (4KB~32KB, only used with -create)");
+        options.addOption("compress", false, "-compress (store data pages LZ4 compressed, only used with -create)");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options,args);
 
         if(cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            DMOptions opt = DMOptions.withMem(parseMem(cmd.getOptionValue("mem")));
+            if(cmd.hasOption("io")) {
+                opt.io = cmd.getOptionValue("io");
+            }
+            opt.flushInterval = DEFAULT_FLUSH_INTERVAL;
+            if(cmd.hasOption("flush")) {
+                opt.flushInterval = Long.parseLong(cmd.getOptionValue("flush"));
+            }
+            opt.extentSize = DEFAULT_EXTENT;
+            if(cmd.hasOption("extent")) {
+                String size = cmd.getOptionValue("extent");
+                opt.extentSize = "0".equals(size) ? 0 : parseMem(size);
+            }
+            opt.readAhead = DEFAULT_READ_AHEAD;
+            if(cmd.hasOption("readahead")) {
+                opt.readAhead = Integer.parseInt(cmd.getOptionValue("readahead"));
+            }
+            if(cmd.hasOption("groupcommit")) {
+                opt.logGroupWindow = Long.parseLong(cmd.getOptionValue("groupcommit"));
+            }
+            opt.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+            if(cmd.hasOption("checkpoint")) {
+                opt.checkpointInterval = Long.parseLong(cmd.getOptionValue("checkpoint"));
+            }
+            opt.checkpointLogSize = DEFAULT_CHECKPOINT_LOG_SIZE;
+            if(cmd.hasOption("checkpointlog")) {
+                String size = cmd.getOptionValue("checkpointlog");
+                opt.checkpointLogSize = "0".equals(size) ? 0 : parseMem(size);
+            }
+            opt.redoThreads = DEFAULT_REDO_THREADS;
+            if(cmd.hasOption("redothreads")) {
+                opt.redoThreads = Integer.parseInt(cmd.getOptionValue("redothreads"));
+            }
+            openDB(cmd.getOptionValue("open"), opt);
             return;
         }
         if(cmd.hasOption("create")) {
-            createDB(cmd.getOptionValue("create"));
+            DMOptions opt = DMOptions.withMem(DEFALUT_MEM);
+            if(cmd.hasOption("pagesize")) {
+                opt.pageSize = (int)parseMem(cmd.getOptionValue("pagesize"));
+            }
+            opt.compress = cmd.hasOption("compress");
+            if(cmd.hasOption("logsegment")) {
+                opt.logSegmentSize = (int)parseMem(cmd.getOptionValue("logsegment"));
+            }
+            createDB(cmd.getOptionValue("create"), opt);
             return;
         }
         System.out.println("Usage: launcher (open|create) DBPath");
     }
 
-    private static void createDB(String path) {
+    private static void createDB(String path, DMOptions opt) {
         TransactionManager tm = TransactionManager.create(path);
-        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm);
+        DataManager dm = DataManager.create(path, opt, tm);
         VersionManager vm = new VersionManagerImpl(tm, dm);
         TableManager.create(path, vm, dm);
         tm.close();
         dm.close();
     }
 
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, DMOptions opt) {
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
+        DataManager dm = DataManager.open(path, opt, tm);
         VersionManager vm = new VersionManagerImpl(tm, dm);
         TableManager tbm = TableManager.open(path, vm, dm);
         new Server(port, tbm).start();
@@ -1,148 +1,599 @@
 package top.guoziyang.mydb.backend.common;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import top.guoziyang.mydb.common.Error;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ *
+ * maxResource > 0 时作为缓冲池使用：引用计数归零的资源仍然留在缓存中，
+ * 只有在缓存已满、需要为新资源腾出位置时，才由 CLOCK 算法挑选一个未被引用的资源驱逐并回源。
+ * maxResource = 0 时不限容量，引用计数归零即回源（DataItem、Entry 缓存使用这种方式）。
+ *
+ * 缓存按 key 的哈希分成若干段（Segment），每段有自己的锁、Map、引用计数和容量份额，
+ * 不同段上的 get/release 互不竞争。
  */
 public abstract class AbstractCache<T> {
-    // 引用计数嘛，除了普通的缓存功能，还需要另外维护一个计数。
-    // 除此以外，为了应对多线程场景，还需要记录哪些资源正在从数据源获取中
-    //（从数据源获取资源是一个相对费时的操作）。于是有下面三个 Map：
-    // 实际缓存的数据
-    private HashMap<Long, T> cache;
-    // 元素的引用个数
-    private HashMap<Long, Integer> references;
-    // 正在获取某资源的线程
-    // me:记录请求的资源是否当前被某些线程获取
-    private HashMap<Long, Boolean> getting;
-
-    // 缓存的最大缓存资源数
-    private int maxResource;
-
-    // 缓存中元素的个数
-    private int count = 0;
-    private Lock lock;
+
+    // 缓存满时等待其他线程释放资源的最长时间
+    private static final long FULL_WAIT_MS = 3000;
+    // 默认的最大分段数
+    private static final int MAX_SEGMENTS = 16;
+    // 有容量上限时，每段至少分到的资源数，容量太小就少分几段，避免某一段很快被引用占满
+    private static final int MIN_SEGMENT_RESOURCE = 64;
+
+    private Segment[] segments;
+    private int segmentMask;
 
     public AbstractCache(int maxResource) {
-        this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this(maxResource, defaultSegments(maxResource));
+    }
+
+    /**
+     * @param segments 分段数，会向下取到 2 的幂
+     */
+    public AbstractCache(int maxResource, int segments) {
+        int n = Integer.highestOneBit(Math.max(1, segments));
+        if(maxResource > 0 && n > maxResource) {
+            n = Integer.highestOneBit(maxResource);
+        }
+        @SuppressWarnings("unchecked")
+        Segment[] segs = (Segment[])new AbstractCache<?>.Segment[n];
+        this.segments = segs;
+        this.segmentMask = n - 1;
+        for(int i = 0; i < n; i ++) {
+            // 容量按段均分，余数分给前几段
+            int share = 0;
+            if(maxResource > 0) {
+                share = maxResource / n + (i < maxResource % n ? 1 : 0);
+            }
+            this.segments[i] = new Segment(share);
+        }
+    }
+
+    private static int defaultSegments(int maxResource) {
+        if(maxResource <= 0) {
+            return MAX_SEGMENTS;
+        }
+        return Math.min(MAX_SEGMENTS, Math.max(1, maxResource / MIN_SEGMENT_RESOURCE));
     }
 
+    // 页号、UID 往往是连续的，先打散再取低位选段
+    private Segment segmentFor(long key) {
+        int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
 
 //    于是，在通过 get() 方法获取资源时，首先进入一个死循环，来无限尝试从缓存里获取。
-//    首先就需要检查这个时候是否有其他线程正在从数据源获取这个资源，如果有，就过会再来看看
+//    首先就需要检查这个时候是否有其他线程正在从数据源获取这个资源，如果有，就等待那个线程获取完成，直接共享它的结果
     protected T get(long key) throws Exception {
-        while(true) {
-            lock.lock();
-            // 请求的资源是否正在被其他线程获取
-            if(getting.containsKey(key)) {
-                // 请求的资源正在被其他线程获取
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
-                }
-                // me:跳过下面的步骤,继续回到循环开始请求获取资源
-                continue;
+        return segmentFor(key).get(key, this::getForCache);
+    }
+
+    /**
+     * 从数据源获取资源的方式
+     */
+    @FunctionalInterface
+    protected interface Loader<T> {
+        T load(long key) throws Exception;
+    }
+
+    /**
+     * 和 get(key) 相同，只是资源不在缓存中时用 loader 获取，而不是 getForCache()
+     * 调用方已经拿到了资源的内容（例如一次读了多个页面）时使用，
+     * 资源已经在缓存中或者正在被其他线程获取时 loader 不会被调用
+     */
+    protected T get(long key, Loader<T> loader) throws Exception {
+        return segmentFor(key).get(key, loader);
+    }
+
+    // 释放一个缓存就简单多了，直接从references中减1，
+    // 不限容量时如果已经减到0了，就可以回源，并且删除缓存中所有相关的结构了；
+    // 作为缓冲池时则留在缓存中，等缓存满了再由 CLOCK 算法驱逐
+    /**
+     * 强行释放一个缓存
+     */
+    protected void release(long key) {
+        segmentFor(key).release(key);
+    }
+
+    /**
+     * 资源当前是否在缓存中
+     */
+    protected boolean isCached(long key) {
+        return segmentFor(key).isCached(key);
+    }
+
+    /**
+     * 资源当前的引用次数，不在缓存中时为 0
+     */
+    protected int getReferences(long key) {
+        return segmentFor(key).getReferences(key);
+    }
+
+    /**
+     * 丢弃一个未被引用的缓存，不回源
+     * 用于数据源中的资源已经不存在（例如文件被截断）的情况
+     */
+    protected void discard(long key) {
+        segmentFor(key).discard(key);
+    }
+
+    /**
+     * 在持有所在段锁的情况下，对未被引用的资源逐个调用 visitor，至多选中 limit 个
+     * visitor 返回 true 的资源被选中并加一次引用，调用方用完后需要逐个 release
+     * 持有段锁期间没有其他线程能拿到这些资源，visitor 看到的是一个不会被并发修改的状态
+     */
+    protected List<T> pinIdle(Predicate<T> visitor, int limit) {
+        List<T> pinned = new ArrayList<>();
+        for(Segment seg : segments) {
+            if(pinned.size() >= limit) {
+                break;
             }
+            seg.pinIdle(visitor, limit, pinned);
+        }
+        return pinned;
+    }
+
+    /**
+     * 在持有所在段锁的情况下，返回所有满足 filter 的资源的 key，包括正在被引用的资源
+     */
+    protected List<Long> keysMatching(Predicate<T> filter) {
+        List<Long> keys = new ArrayList<>();
+        for(Segment seg : segments) {
+            seg.keysMatching(filter, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * 等待正在进行的驱逐写回完成
+     * 驱逐在段锁之外写回，资源离开缓存之后、写回完成之前 keysMatching() 看不到它，
+     * 依赖写回已经完成的调用方（例如写回所有脏页之后 fsync）要先调用这里
+     */
+    protected void awaitEvictions() {
+        for(Segment seg : segments) {
+            seg.awaitEvictions();
+        }
+    }
+
+    // 缓存应当还有以一个安全关闭的功能，在关闭时，需要将缓存中所有的资源强行回源。
+    /**
+     * 关闭缓存，写回所有资源
+     */
+    protected void close() {
+        awaitEvictions();
+        for(Segment seg : segments) {
+            seg.close();
+        }
+    }
 
-            // 当然如果资源在缓存中，就可以直接获取并返回了，记得要给资源的引用数 +1。
-            if(cache.containsKey(key)) {
-                // 资源在缓存中，直接返回
+    /**
+     * 缓存命中次数
+     */
+    public long getHitCount() {
+        long sum = 0;
+        for(Segment seg : segments) {
+            seg.lock.lock();
+            sum += seg.hitCount;
+            seg.lock.unlock();
+        }
+        return sum;
+    }
+
+    /**
+     * 缓存未命中（需要从数据源获取）次数
+     */
+    public long getMissCount() {
+        long sum = 0;
+        for(Segment seg : segments) {
+            seg.lock.lock();
+            sum += seg.missCount;
+            seg.lock.unlock();
+        }
+        return sum;
+    }
+
+    /**
+     * 缓存的一段，持有这一段 key 的全部状态
+     */
+    private class Segment {
+        // 引用计数嘛，除了普通的缓存功能，还需要另外维护一个计数。
+        // 除此以外，为了应对多线程场景，还需要记录哪些资源正在从数据源获取中
+        //（从数据源获取资源是一个相对费时的操作）。于是有下面三个 Map：
+        // 这里都用以 long 为 key 的开放寻址 Map，命中时不装箱、不分配内存
+        // 实际缓存的数据
+        private LongObjectMap<T> cache;
+        // 元素的引用个数
+        private LongIntMap references;
+        // 正在获取某资源的线程
+        // 同一资源的其他请求者在对应的 Loading 上等待，获取完成时一起被唤醒
+        private LongObjectMap<Loading<T>> getting;
+
+        // 这一段的最大缓存资源数
+        private int maxResource;
+
+        // 这一段中元素的个数
+        private int count = 0;
+        private Lock lock;
+        // 有资源的引用计数归零（可以被驱逐）时唤醒等待的线程
+        private Condition evictable;
+
+        // CLOCK 驱逐算法使用的环形槽位，只在 maxResource > 0 时使用
+        // slotKeys[i] 为第 i 个槽位中资源的 key，slotUsed[i] 表示该槽位是否被占用，slotRef[i] 为访问位
+        private long[] slotKeys;
+        private boolean[] slotUsed;
+        private boolean[] slotRef;
+        // key 所在的槽位
+        private LongIntMap slots;
+        // 时钟指针
+        private int hand;
+
+        // 命中与未命中次数
+        private long hitCount;
+        private long missCount;
+
+        Segment(int maxResource) {
+            this.maxResource = maxResource;
+            cache = new LongObjectMap<>(maxResource);
+            references = new LongIntMap(maxResource);
+            getting = new LongObjectMap<>();
+            lock = new ReentrantLock();
+            evictable = lock.newCondition();
+            if(maxResource > 0) {
+                slotKeys = new long[maxResource];
+                slotUsed = new boolean[maxResource];
+                slotRef = new boolean[maxResource];
+                slots = new LongIntMap(maxResource);
+            }
+        }
+
+        T get(long key, Loader<T> loader) throws Exception {
+            Loading<T> loading;
+            while(true) {
+                lock.lock();
+                // 请求的资源是否正在被其他线程获取
+                Loading<T> other = getting.get(key);
+                if(other != null) {
+                    // 请求的资源正在被其他线程获取，登记为等待者，获取完成时引用数会一并算上
+                    other.waiters ++;
+                    if(other.evicted == null) {
+                        hitCount ++;
+                    }
+                    lock.unlock();
+                    T obj = other.await();
+                    if(obj == null) {
+                        // 资源正在被驱逐写回，写回完成后重新获取
+                        continue;
+                    }
+                    return obj;
+                }
+
+                // 当然如果资源在缓存中，就可以直接获取并返回了，记得要给资源的引用数 +1。
                 T obj = cache.get(key);
+                if(obj != null) {
+                    // 资源在缓存中，直接返回
+                    // 资源的引用数 +1
+                    references.put(key, references.get(key, 0) + 1);
+                    if(maxResource > 0) {
+                        slotRef[slots.get(key, -1)] = true;
+                    }
+                    hitCount ++;
+                    lock.unlock();
+                    return obj;
+                }
+                // 否则，如果缓存没满的话，就在 getting 中注册一下，该线程准备从数据源获取资源了。
+                // 缓存满了则先尝试驱逐一个未被引用的资源，全部资源都被引用时等待其他线程释放
+                Loading<T> evicting = null;
+                if(maxResource > 0 && count == maxResource) {
+                    evicting = evict();
+                    if(evicting == null) {
+                        boolean signalled;
+                        try {
+                            signalled = evictable.await(FULL_WAIT_MS, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            lock.unlock();
+                            throw e;
+                        }
+                        lock.unlock();
+                        if(!signalled) {
+                            // cache以满异常
+                            throw Error.CacheFullException;
+                        }
+                        continue;
+                    }
+                }
                 // 资源的引用数 +1
-                references.put(key, references.get(key) + 1);
+                count ++;
+                missCount ++;
+                loading = new Loading<>();
+                getting.put(key, loading);
                 lock.unlock();
-                return obj;
+                if(evicting != null) {
+                    // 被驱逐的资源在段锁之外写回，不挡住这一段的其他访问
+                    finishEviction(evicting);
+                }
+                // 跳出循环获取
+                break;
             }
-            // 否则，如果缓存没满的话，就在 getting 中注册一下，该线程准备从数据源获取资源了。
-            // 尝试获取该资源
-            if(maxResource > 0 && count == maxResource) {
+            // 从数据源获取资源就比较简单了，直接调用那个抽象方法即可，获取完成记得从 getting 中删除 key。
+            T obj;
+            try {
+                obj = loader.load(key);
+            } catch(Exception e) {
+                lock.lock();
+                // me:说明没获取成功,资源的引用数 -1
+                count --;
+                getting.remove(key);
+                evictable.signalAll();
                 lock.unlock();
-                // cache以满异常
-                throw Error.CacheFullException;
+                // 等待者也会收到这个异常
+                loading.fail(e);
+                throw e;
             }
-            // 资源的引用数 +1
-            count ++;
-            getting.put(key, true);
-            lock.unlock();
-            // 跳出循环获取
-            break;
-        }
-        // 从数据源获取资源就比较简单了，直接调用那个抽象方法即可，获取完成记得从 getting 中删除 key。
-        T obj = null;
-        try {
-            obj = getForCache(key);
-        } catch(Exception e) {
+
             lock.lock();
-            // me:说明没获取成功,资源的引用数 -1
-            count --;
             getting.remove(key);
+            // 放入cache中，等待者也各持有一个引用
+            cache.put(key, obj);
+            references.put(key, 1 + loading.waiters);
+            if(maxResource > 0) {
+                occupySlot(key);
+            }
             lock.unlock();
-            throw e;
+            loading.done(obj);
+
+            return obj;
         }
 
-        lock.lock();
-        // me:表明没人获取这个key?
-        getting.remove(key);
-        // 放入cache中
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
-        
-        return obj;
-    }
+        void release(long key) {
+            lock.lock();
+            try {
+                int ref = references.get(key, 0)-1;
+                if(ref == 0 && maxResource > 0) {
+                    references.put(key, 0);
+                    evictable.signalAll();
+                } else if(ref == 0) {
+                    // 已经减到0了，就可以回源，并且删除缓存中所有相关的结构了
+                    T obj = cache.get(key);
+                    releaseForCache(obj);
+                    references.remove(key);
+                    cache.remove(key);
+                    count --;
+                } else {
+                    references.put(key, ref);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
 
-    // 释放一个缓存就简单多了，直接从references中减1，如果已经减到0了，就可以回源，并且删除缓存中所有相关的结构了：
-    /**
-     * 强行释放一个缓存
-     */
-    protected void release(long key) {
-        lock.lock();
-        try {
-            int ref = references.get(key)-1;
-            if(ref == 0) {
-                // 已经减到0了，就可以回源，并且删除缓存中所有相关的结构了
-                T obj = cache.get(key);
-                releaseForCache(obj);
+        boolean isCached(long key) {
+            lock.lock();
+            try {
+                return cache.containsKey(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getReferences(long key) {
+            lock.lock();
+            try {
+                return references.get(key, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void discard(long key) {
+            lock.lock();
+            try {
+                if(!cache.containsKey(key) || references.get(key, 0) > 0) {
+                    return;
+                }
                 references.remove(key);
                 cache.remove(key);
+                if(maxResource > 0) {
+                    freeSlot(key);
+                }
                 count --;
-            } else {
-                references.put(key, ref);
+                evictable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void pinIdle(Predicate<T> visitor, int limit, List<T> pinned) {
+            lock.lock();
+            try {
+                for(long key : cache.keys()) {
+                    if(pinned.size() >= limit) {
+                        break;
+                    }
+                    if(references.get(key, 0) > 0) {
+                        continue;
+                    }
+                    T obj = cache.get(key);
+                    if(visitor.test(obj)) {
+                        references.put(key, 1);
+                        pinned.add(obj);
+                    }
+                }
+            } finally {
+                lock.unlock();
             }
-        } finally {
-            lock.unlock();
+        }
+
+        void keysMatching(Predicate<T> filter, List<Long> keys) {
+            lock.lock();
+            try {
+                for(long key : cache.keys()) {
+                    if(filter.test(cache.get(key))) {
+                        keys.add(key);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 等待这一段正在进行的驱逐写回完成
+        void awaitEvictions() {
+            List<Loading<T>> evicting = new ArrayList<>();
+            lock.lock();
+            try {
+                for(long key : getting.keys()) {
+                    Loading<T> loading = getting.get(key);
+                    if(loading.evicted != null) {
+                        evicting.add(loading);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            for(Loading<T> loading : evicting) {
+                loading.awaitDone();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                for (long key : cache.keys()) {
+                    T obj = cache.get(key);
+                    releaseForCache(obj);
+                    references.remove(key);
+                    cache.remove(key);
+                    if(maxResource > 0) {
+                        freeSlot(key);
+                    }
+                    count --;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // CLOCK 算法：指针绕着槽位转，跳过仍被引用的资源；
+        // 访问位为 1 的资源给一次机会，清零后继续；遇到访问位为 0 的资源就驱逐它。
+        // 转两圈都没找到，说明所有资源都在被引用，返回 null
+        // 选中的资源从缓存中移除，并在 getting 中登记一个驱逐中的 Loading，写回由调用方释放段锁之后调用 finishEviction() 完成。
+        // 写回完成之前，同一 key 的获取在这个 Loading 上等待，不会从数据源读到写回之前的旧内容
+        // 调用时需持有 lock
+        private Loading<T> evict() {
+            for(int i = 0; i < 2 * maxResource; i ++) {
+                int slot = hand;
+                hand = (hand + 1) % maxResource;
+                if(!slotUsed[slot]) {
+                    continue;
+                }
+                long key = slotKeys[slot];
+                if(references.get(key, 0) > 0) {
+                    continue;
+                }
+                if(slotRef[slot]) {
+                    slotRef[slot] = false;
+                    continue;
+                }
+                Loading<T> evicting = new Loading<>();
+                evicting.key = key;
+                evicting.evicted = cache.get(key);
+                references.remove(key);
+                cache.remove(key);
+                freeSlot(key);
+                count --;
+                getting.put(key, evicting);
+                return evicting;
+            }
+            return null;
+        }
+
+        // 写回被驱逐的资源，调用时不持有 lock。写回完成后放行等待这个 key 的线程，它们会重新获取
+        private void finishEviction(Loading<T> evicting) {
+            try {
+                releaseForCache(evicting.evicted);
+            } finally {
+                lock.lock();
+                getting.remove(evicting.key);
+                lock.unlock();
+                evicting.done(null);
+            }
+        }
+
+        // 正在获取的资源已经计入 count，所以这里一定能找到空闲槽位
+        private void occupySlot(long key) {
+            int slot = hand;
+            while(slotUsed[slot]) {
+                slot = (slot + 1) % maxResource;
+            }
+            slotUsed[slot] = true;
+            slotKeys[slot] = key;
+            slotRef[slot] = true;
+            slots.put(key, slot);
+        }
+
+        private void freeSlot(long key) {
+            int slot = slots.get(key, -1);
+            slots.remove(key);
+            slotUsed[slot] = false;
+            slotRef[slot] = false;
         }
     }
 
-    // 缓存应当还有以一个安全关闭的功能，在关闭时，需要将缓存中所有的资源强行回源。
     /**
-     * 关闭缓存，写回所有资源
+     * 一次正在进行的获取，同一个 key 的并发请求只会真正调用一次 getForCache()
+     * 也用于正在写回的驱逐，这时 evicted 为被驱逐的资源，完成时结果为 null
      */
-    protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+    private static class Loading<T> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        // 等待者个数，受所在 Segment 的 lock 保护
+        private int waiters;
+        private T obj;
+        private Exception err;
+        private long key;
+        private T evicted;
+
+        void done(T obj) {
+            this.obj = obj;
+            latch.countDown();
+        }
+
+        void fail(Exception err) {
+            this.err = err;
+            latch.countDown();
+        }
+
+        // 引用数已经在获取完成时算上了，这里即使被中断也要等到结果，否则引用无人释放
+        T await() throws Exception {
+            awaitDone();
+            if(err != null) {
+                throw err;
+            }
+            return obj;
+        }
+
+        void awaitDone() {
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
             }
-        } finally {
-            lock.unlock();
         }
     }
 
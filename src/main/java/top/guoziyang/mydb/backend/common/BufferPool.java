@@ -0,0 +1,70 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 字节数组池，按 2 的幂分级，每级最多留 MAX_PER_CLASS 个空闲数组
+ * take(length) 借出的数组长度不小于 length，使用方只用前 length 个字节，用完 give 回来
+ * 超过最大一级的请求直接分配，归还时丢弃
+ */
+public class BufferPool {
+
+    private static final int MIN_SHIFT = 4;
+    private static final int MAX_SHIFT = 16;
+    private static final int MAX_PER_CLASS = 64;
+
+    private byte[][][] free;
+    private int[] freeCount;
+    private Lock lock;
+
+    public BufferPool() {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        free = new byte[classes][MAX_PER_CLASS][];
+        freeCount = new int[classes];
+        lock = new ReentrantLock();
+    }
+
+    public byte[] take(int length) {
+        int c = classOf(length);
+        if(c < 0) {
+            return new byte[length];
+        }
+        lock.lock();
+        try {
+            if(freeCount[c] > 0) {
+                byte[] buf = free[c][--freeCount[c]];
+                free[c][freeCount[c]] = null;
+                return buf;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new byte[1 << (c + MIN_SHIFT)];
+    }
+
+    public void give(byte[] buf) {
+        int c = classOf(buf.length);
+        // 只收本池分出去的整级数组
+        if(c < 0 || buf.length != 1 << (c + MIN_SHIFT)) {
+            return;
+        }
+        lock.lock();
+        try {
+            if(freeCount[c] < MAX_PER_CLASS) {
+                free[c][freeCount[c]++] = buf;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 能放下 length 字节的最小一级，超过最大一级返回 -1
+    private static int classOf(int length) {
+        int shift = length <= (1 << MIN_SHIFT) ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(length - 1);
+        if(shift > MAX_SHIFT) {
+            return -1;
+        }
+        return shift - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,150 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 以 long 为 key、int 为 value 的开放寻址哈希表
+ * 用来替代 HashMap<Long, Integer>，key 和 value 都不装箱，更新已有 key 不分配内存
+ * 探测与删除方式与 LongObjectMap 相同
+ */
+public class LongIntMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    public LongIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+    }
+
+    private int indexOf(long key) {
+        int i = LongObjectMap.hash(key) & mask;
+        while(used[i]) {
+            if(keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 获取 key 对应的 value，不存在时返回 defaultValue
+     */
+    public int get(long key, int defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public void put(long key, int value) {
+        int i = LongObjectMap.hash(key) & mask;
+        while(used[i]) {
+            if(keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if(++ size > threshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * 删除 key，返回 key 之前是否存在
+     */
+    public boolean remove(long key) {
+        int i = indexOf(key);
+        if(i < 0) {
+            return false;
+        }
+        int j = i;
+        while(true) {
+            j = (j + 1) & mask;
+            if(!used[j]) {
+                break;
+            }
+            int k = LongObjectMap.hash(keys[j]) & mask;
+            if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+        used[i] = false;
+        size --;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        init(capacity);
+        for(int i = 0; i < oldKeys.length; i ++) {
+            if(!oldUsed[i]) {
+                continue;
+            }
+            int j = LongObjectMap.hash(oldKeys[i]) & mask;
+            while(used[j]) {
+                j = (j + 1) & mask;
+            }
+            used[j] = true;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long[] keys() {
+        long[] res = new long[size];
+        int n = 0;
+        for(int i = 0; i < keys.length; i ++) {
+            if(used[i]) {
+                res[n ++] = keys[i];
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+}
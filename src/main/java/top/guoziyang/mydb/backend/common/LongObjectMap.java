@@ -0,0 +1,176 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 以 long 为 key 的开放寻址哈希表
+ * 与 HashMap<Long, V> 相比，key 不装箱，也不为每个元素分配 Node，查找和更新已有 key 都不分配内存
+ * 使用线性探测，删除时把后面的元素往前挪（backward shift），不留墓碑
+ * value 不能为 null，null 用来标记空槽位
+ */
+public class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    // 元素个数超过 threshold 时扩容，装载因子 0.5
+    private int threshold;
+
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        init(capacity);
+    }
+
+    private void init(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+    }
+
+    // murmur3 的 fmix64，把连续的页号、UID 打散
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+
+    // 返回 key 所在的槽位，不存在返回 -1
+    private int indexOf(long key) {
+        int i = hash(key) & mask;
+        while(values[i] != null) {
+            if(keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V)values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 放入 key-value，返回之前的 value，没有则返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(value == null) {
+            throw new NullPointerException();
+        }
+        int i = hash(key) & mask;
+        while(values[i] != null) {
+            if(keys[i] == key) {
+                V old = (V)values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if(++ size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * 删除 key，返回被删除的 value，没有则返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if(i < 0) {
+            return null;
+        }
+        V old = (V)values[i];
+        shiftBack(i);
+        size --;
+        return old;
+    }
+
+    // 槽位 i 被删除后，把探测链上后面的元素挪到合适的位置，保证查找不会提前遇到空槽位
+    private void shiftBack(int i) {
+        int j = i;
+        while(true) {
+            j = (j + 1) & mask;
+            if(values[j] == null) {
+                break;
+            }
+            int k = hash(keys[j]) & mask;
+            // k 落在 (i, j] 之间时，元素 j 不需要移动
+            if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+        values[i] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        init(capacity);
+        for(int i = 0; i < oldKeys.length; i ++) {
+            if(oldValues[i] == null) {
+                continue;
+            }
+            int j = hash(oldKeys[i]) & mask;
+            while(values[j] != null) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 当前所有 key 的拷贝，遍历期间可以修改 map
+     */
+    public long[] keys() {
+        long[] res = new long[size];
+        int n = 0;
+        for(int i = 0; i < keys.length; i ++) {
+            if(values[i] != null) {
+                res[n ++] = keys[i];
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+}
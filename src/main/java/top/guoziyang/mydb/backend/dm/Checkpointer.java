@@ -0,0 +1,75 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期做检查点的线程
+ * 距上一次检查点超过 interval 毫秒，或者之后写入的日志超过 logSize 字节时做一次检查点，
+ * 两个条件都可以单独关闭（为 0）。检查点之前的日志段随之被回收，恢复时也只需要读检查点之后的日志。
+ */
+class Checkpointer implements Runnable {
+
+    // 检查条件的间隔（毫秒）
+    private static final long POLL_INTERVAL = 100;
+
+    private DataManagerImpl dm;
+    private long interval;
+    private long logSize;
+    private Thread thread;
+    // 停止时 countDown，唤醒等待中的线程
+    // 不能用 interrupt：在 FileChannel 读写时被中断会导致 channel 被关闭
+    private CountDownLatch stopped;
+
+    Checkpointer(DataManagerImpl dm, long interval, long logSize) {
+        this.dm = dm;
+        this.interval = interval;
+        this.logSize = logSize;
+        this.stopped = new CountDownLatch(1);
+    }
+
+    void start() {
+        thread = new Thread(this, "checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped.countDown();
+        boolean interrupted = false;
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastTime = System.currentTimeMillis();
+        long lastLsn = dm.logger.end();
+        while(true) {
+            try {
+                if(stopped.await(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long end = dm.logger.end();
+            if((interval > 0 && now - lastTime >= interval) || (logSize > 0 && end - lastLsn >= logSize)) {
+                // 没做成（有脏页迟迟不释放）时下一轮再试
+                if(dm.checkpoint()) {
+                    lastTime = now;
+                    lastLsn = end;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package top.guoziyang.mydb.backend.dm;
+
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+/**
+ * 打开、创建 DataManager 时的可选配置
+ */
+public class DMOptions {
+    // 页面缓存可以使用的内存大小（字节）
+    public long mem;
+    // 数据文件的访问方式，见 PageCache.IO_CHANNEL、PageCache.IO_DIRECT
+    public String io = PageCache.IO_CHANNEL;
+    // 后台写回脏页的间隔（毫秒），0 表示不启用，脏页在驱逐时写回并立即 fsync
+    public long flushInterval;
+    // 数据文件每次增长的字节数，0 表示每次新建页面增长一页
+    public long extentSize;
+    // 顺序访问时一次预读的页面数，0 表示不预读
+    public int readAhead;
+    // 页面大小（字节），只在创建数据库时使用，打开时以第一页中记录的为准
+    public int pageSize = PageCache.PAGE_SIZE;
+    // 是否压缩存储数据页，只在创建数据库时使用，打开时以第一页中记录的为准
+    public boolean compress;
+    // 日志组提交的等待窗口（微秒）：leader 写盘前等待其他并发的日志加入同一次 fsync，0 表示不等待
+    public long logGroupWindow;
+    // 日志段的大小（字节），只在创建数据库时使用
+    public int logSegmentSize = Logger.DEFAULT_SEGMENT_SIZE;
+    // 定期检查点的间隔（毫秒），0 表示不按时间触发
+    public long checkpointInterval;
+    // 距上一次检查点写入的日志超过这么多字节时做检查点，0 表示不按日志量触发
+    public long checkpointLogSize;
+    // 崩溃恢复时并行重做的线程数，1 表示单线程重做
+    public int redoThreads = 1;
+
+    public static DMOptions withMem(long mem) {
+        DMOptions opt = new DMOptions();
+        opt.mem = mem;
+        return opt;
+    }
+}
@@ -1,41 +1,71 @@
-package top.guoziyang.mydb.backend.dm;
-
-import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
-import top.guoziyang.mydb.backend.dm.logger.Logger;
-import top.guoziyang.mydb.backend.dm.page.PageOne;
-import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
-import top.guoziyang.mydb.backend.tm.TransactionManager;
-
-public interface DataManager {
-    DataItem read(long uid) throws Exception;
-    long insert(long xid, byte[] data) throws Exception;
-    void close();
-
-    // 从已有文件创建 DataManager 和从空文件创建 DataManager 的流程稍有不同，
-    // 除了 PageCache 和 Logger 的创建方式有所不同以外，
-    // 从空文件创建首先需要对第一页进行初始化，而从已有文件创建，则是需要对第一页进行校验，来判断是否需要执行恢复流程。并重新对第一页生成随机字节。
-
-    public static DataManager create(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.create(path, mem);
-        Logger lg = Logger.create(path);
-
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
-        // me:估计页号1是用来启动检查
-        dm.initPageOne();
-        return dm;
-    }
-
-    // 从已有文件创建，则是需要对第一页进行校验，来判断是否需要执行恢复流程。并重新对第一页生成随机字节。
-    public static DataManager open(String path, long mem, TransactionManager tm) {
-        PageCache pc = PageCache.open(path, mem);
-        Logger lg = Logger.open(path);
-        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
-        if(!dm.loadCheckPageOne()) {
-            Recover.recover(tm, lg, pc);
-        }
-        dm.fillPageIndex();
-        PageOne.setVcOpen(dm.pageOne);
-        dm.pc.flushPage(dm.pageOne);
-        return dm;
-    }
-}
+package top.guoziyang.mydb.backend.dm;
+
+import java.util.List;
+
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+
+public interface DataManager {
+    DataItem read(long uid) throws Exception;
+    long insert(long xid, byte[] data) throws Exception;
+    List<Long> insertBatch(long xid, List<byte[]> data) throws Exception;
+    // 大数据拆块写入专用的溢出页链，返回链头的 uid
+    long insertOverflow(long xid, byte[] data) throws Exception;
+    byte[] readOverflow(long uid) throws Exception;
+    // 数据库的页面大小，创建时选定
+    int getPageSize();
+    void close();
+    // 做一次检查点，返回是否成功，见 DataManagerImpl.checkpoint()
+    boolean checkpoint();
+
+    // 从已有文件创建 DataManager 和从空文件创建 DataManager 的流程稍有不同，
+    // 除了 PageCache 和 Logger 的创建方式有所不同以外，
+    // 从空文件创建首先需要对第一页进行初始化，而从已有文件创建，则是需要对第一页进行校验，来判断是否需要执行恢复流程。并重新对第一页生成随机字节。
+
+    public static DataManager create(String path, long mem, TransactionManager tm) {
+        return create(path, DMOptions.withMem(mem), tm);
+    }
+
+    public static DataManager create(String path, DMOptions opt, TransactionManager tm) {
+        PageCache pc = PageCache.create(path, opt);
+        Logger lg = Logger.create(path, opt.logGroupWindow, opt.logSegmentSize);
+
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        dm.fsm = FreeSpaceMap.create(path, pc.getPageSize());
+        // me:估计页号1是用来启动检查
+        dm.initPageOne();
+        dm.startCheckpointer(opt);
+        return dm;
+    }
+
+    // 从已有文件创建，则是需要对第一页进行校验，来判断是否需要执行恢复流程。并重新对第一页生成随机字节。
+    public static DataManager open(String path, long mem, TransactionManager tm) {
+        return open(path, DMOptions.withMem(mem), tm);
+    }
+
+    public static DataManager open(String path, DMOptions opt, TransactionManager tm) {
+        // 页面大小、是否压缩以创建时记录在第一页中的为准
+        byte[] header = PageCache.readHeader(path);
+        PageCache pc = PageCache.open(path, opt, PageOne.getPageSize(header), PageOne.isCompressed(header));
+        Logger lg = Logger.open(path, opt.logGroupWindow);
+        DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        dm.fsm = FreeSpaceMap.open(path, pc.getPageSize());
+        // 正常关闭时空闲空间表是完整的，直接用它重建 PageIndex；
+        // 否则表是最近一次检查点时写的，恢复时更新重做、撤销过的页面，之后只需读表覆盖不到的页面
+        if(!dm.loadCheckPageOne()) {
+            int covered = dm.fsm.read();
+            Recover.recover(tm, lg, pc, PageOne.getCheckpoint(dm.pageOne), opt.redoThreads, dm.fsm);
+            dm.fillPageIndex(covered);
+        } else if(!dm.loadPageIndex()) {
+            dm.fillPageIndex();
+        }
+        PageOne.setVcOpen(dm.pageOne);
+        dm.pc.flushPage(dm.pageOne);
+        dm.startCheckpointer(opt);
+        return dm;
+    }
+}
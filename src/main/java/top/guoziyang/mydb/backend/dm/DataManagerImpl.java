@@ -1,171 +1,631 @@
-package top.guoziyang.mydb.backend.dm;
-
-import top.guoziyang.mydb.backend.common.AbstractCache;
-import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
-import top.guoziyang.mydb.backend.dm.dataItem.DataItemImpl;
-import top.guoziyang.mydb.backend.dm.logger.Logger;
-import top.guoziyang.mydb.backend.dm.page.Page;
-import top.guoziyang.mydb.backend.dm.page.PageOne;
-import top.guoziyang.mydb.backend.dm.page.PageX;
-import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
-import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
-import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
-import top.guoziyang.mydb.backend.tm.TransactionManager;
-import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Types;
-import top.guoziyang.mydb.common.Error;
-
-public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
-
-    TransactionManager tm;
-    PageCache pc;
-    Logger logger;
-    PageIndex pIndex;
-    Page pageOne;
-
-    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
-        super(0);
-        this.pc = pc;
-        this.logger = logger;
-        this.tm = tm;
-        this.pIndex = new PageIndex();
-    }
-
-    // read()根据UID从缓存中获取 DataItem,并校验有效位:
-    @Override
-    public DataItem read(long uid) throws Exception {
-        DataItemImpl di = (DataItemImpl)super.get(uid);
-        if(!di.isValid()) {
-            di.release();
-            return null;
-        }
-        return di;
-    }
-
-    // insert()方法,在pageIndex中获取一个足以存储插入内容的页面的页号,
-    // 获取页面后,首先需要写入插入日志,接着才可以通过 pageX 插入数据,并返回插入位置的偏移.最后需要将页面信息重新插入pageIndex。
-    @Override
-    public long insert(long xid, byte[] data) throws Exception {
-        byte[] raw = DataItem.wrapDataItemRaw(data);
-        if(raw.length > PageX.MAX_FREE_SPACE) {
-            throw Error.DataTooLargeException;
-        }
-
-        PageInfo pi = null;
-        for(int i = 0; i < 5; i ++) {
-            pi = pIndex.select(raw.length);
-            if (pi != null) {
-                break;
-            } else {
-                int newPgno = pc.newPage(PageX.initRaw());
-                pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
-            }
-        }
-        if(pi == null) {
-            throw Error.DatabaseBusyException;
-        }
-
-        Page pg = null;
-        int freeSpace = 0;
-        try {
-            pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
-
-            short offset = PageX.insert(pg, raw);
-
-            pg.release();
-            return Types.addressToUid(pi.pgno, offset);
-
-        } finally {
-            // 将取出的pg重新插入pIndex
-            if(pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
-            } else {
-                pIndex.add(pi.pgno, freeSpace);
-            }
-        }
-    }
-
-    // DataManager 正常关闭时，需要执行缓存和日志的关闭流程，不要忘了设置第一页的字节校验:
-    @Override
-    public void close() {
-        super.close();
-        logger.close();
-
-        PageOne.setVcClose(pageOne);
-        pageOne.release();
-        pc.close();
-    }
-
-    // 为xid生成update日志
-    public void logDataItem(long xid, DataItem di) {
-        byte[] log = Recover.updateLog(xid, di);
-        logger.log(log);
-    }
-
-    public void releaseDataItem(DataItem di) {
-        super.release(di.getUid());
-    }
-
-    // DataItem 缓存，getForCache()，只需要从 key 中解析出页号，从 pageCache 中获取到页面，再根据偏移，解析出 DataItem 即可：
-    // 来自评论区:
-    // UID的结构是[pgno(32 bits)][0 (16 bits)][offset (16 bits)],因为pgno是int,offset是short
-    @Override
-    protected DataItem getForCache(long uid) throws Exception {
-        // me:获得低16位的偏移量offset
-        short offset = (short)(uid & ((1L << 16) - 1));
-        uid >>>= 32;
-        // me:获得高32位的页号pgno
-        int pgno = (int)(uid & ((1L << 32) - 1));
-        Page pg = pc.getPage(pgno);
-        // @2025.7.4
-        // me:感觉parseDataItem直接输入参数就是uid就可以了,在parseDataItem中再解析uid,不然parseDataItem中又得通过Types.addressToUid得到回uid
-        return DataItem.parseDataItem(pg, offset, this);
-    }
-
-    // DataItem 缓存释放，需要将 DataItem 写回数据源，由于对文件的读写是以页为单位进行的，只需要将 DataItem 所在的页 release 即可:
-    @Override
-    protected void releaseForCache(DataItem di) {
-        di.page().release();
-    }
-
-    // 在创建文件时初始化PageOne
-    void initPageOne() {
-        int pgno = pc.newPage(PageOne.InitRaw());
-        assert pgno == 1;
-        try {
-            pageOne = pc.getPage(pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        pc.flushPage(pageOne);
-    }
-
-    // 在打开已有文件时时读入PageOne，并验证正确性
-    boolean loadCheckPageOne() {
-        try {
-            pageOne = pc.getPage(1);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        return PageOne.checkVc(pageOne);
-    }
-
-    // 在DataManager被创建时,需要获取所有页面并填充 PageIndex:
-    // 初始化pageIndex
-    void fillPageIndex() {
-        int pageNumber = pc.getPageNumber();
-        for(int i = 2; i <= pageNumber; i ++) {
-            Page pg = null;
-            try {
-                pg = pc.getPage(i);
-            } catch (Exception e) {
-                Panic.panic(e);
-            }
-            pIndex.add(pg.getPageNumber(), PageX.getFreeSpace(pg));
-            pg.release();
-        }
-    }
-    
-}
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.primitives.Bytes;
+
+import top.guoziyang.mydb.backend.common.AbstractCache;
+import top.guoziyang.mydb.backend.common.BufferPool;
+import top.guoziyang.mydb.backend.common.SubArray;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItemImpl;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageIndex;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.backend.utils.Types;
+import top.guoziyang.mydb.common.Error;
+
+public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
+
+    // 批量插入时最多同时持有的页面数，攒够了就先写日志、释放页面，避免占满缓冲池。
+    // 缓冲池很小时不超过容量的 1/4
+    private static final int MAX_BATCH_PAGES = 16;
+
+    // 溢出块是一个 DataItem，数据为 [NextUid][Chunk]，一块正好占满一页
+    private static final int OF_OVERFLOW_CHUNK = 8;
+
+    // 检查点等待被引用的脏页释放的最长时间（毫秒）
+    private static final long CHECKPOINT_FLUSH_TIMEOUT = 10000;
+    // firstLsns 中的事务数超过这个值时清理已经结束的事务
+    private static final int FIRST_LSN_PRUNE = 1024;
+    // 当前页闲置超过这个时间，可以被收回 pIndex 交给别的线程
+    static final long HELD_PAGE_IDLE_MS = 1000;
+
+    TransactionManager tm;
+    PageCache pc;
+    Logger logger;
+    PageIndex pIndex;
+    FreeSpaceMap fsm;
+    Page pageOne;
+    // 每个线程正在插入的页面，不在 pIndex 中。线程不再插入时，闲置超过 HELD_PAGE_IDLE_MS 的当前页
+    // 在 pIndex 取不到页面时被收回，见 reclaimIdlePages()
+    private ThreadLocal<PageInfo> current;
+    // 每一页当前有效的 PageInfo：pIndex 中的那一项，或者持有它的线程的当前页（held 为 true）。
+    // pIndex 中与这里不是同一个对象的项已经过时，取出时丢弃，这样一页在 pIndex 中最多只有一项有效，
+    // 也不会既在 pIndex 中又是某个线程的当前页。打开数据库时从空闲空间表直接放入 pIndex 的页面不在表中，第一次取出时登记
+    ConcurrentHashMap<Integer, PageInfo> pageInfos;
+    // 作为某个线程当前页的页面
+    private Set<PageInfo> heldPages;
+
+    // 插入次数，以及其中目标页面已经在缓冲池中的次数
+    private AtomicLong insertCount;
+    private AtomicLong residentInsertCount;
+
+    // DataItem 修改时的前相数据缓冲
+    private BufferPool oldRawPool;
+    private int batchPages;
+
+    // 页面大小由数据库文件决定，一页最多能放下的 DataItem 大小和溢出块大小随之而定
+    private int pageSize;
+    private int maxFreeSpace;
+    private int overflowChunkSize;
+
+    // 写过日志的事务的第一条日志的 LSN（不早于），检查点据此决定撤销要从哪里开始读日志。
+    // 事务结束时不通知 DataManager，已经结束的事务在检查点或者表变大时清理
+    private Map<Long, Long> firstLsns;
+    private int firstLsnPruneAt;
+    // 同一时间只做一个检查点
+    private Lock checkpointLock;
+    Checkpointer checkpointer;
+
+    public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
+        super(0);
+        this.pc = pc;
+        this.logger = logger;
+        this.tm = tm;
+        this.pageSize = pc.getPageSize();
+        this.maxFreeSpace = PageX.maxFreeSpace(pageSize);
+        this.overflowChunkSize = maxFreeSpace - DataItemImpl.OF_DATA - OF_OVERFLOW_CHUNK;
+        this.pIndex = new PageIndex(pageSize);
+        this.current = new ThreadLocal<>();
+        this.pageInfos = new ConcurrentHashMap<>();
+        this.heldPages = ConcurrentHashMap.newKeySet();
+        this.insertCount = new AtomicLong(0);
+        this.residentInsertCount = new AtomicLong(0);
+        this.oldRawPool = new BufferPool();
+        this.batchPages = Math.max(1, Math.min(MAX_BATCH_PAGES, pc.getCapacity() / 4));
+        this.firstLsns = new ConcurrentHashMap<>();
+        this.firstLsnPruneAt = FIRST_LSN_PRUNE;
+        this.checkpointLock = new ReentrantLock();
+    }
+
+    // read()根据UID从缓存中获取 DataItem,并校验有效位:
+    @Override
+    public DataItem read(long uid) throws Exception {
+        DataItemImpl di = (DataItemImpl)super.get(uid);
+        if(!di.isValid()) {
+            di.release();
+            return null;
+        }
+        return di;
+    }
+
+    // insert()方法,在pageIndex中获取一个足以存储插入内容的页面的页号,
+    // 获取页面后,通过 pageX 插入数据,接着写入插入日志,并返回插入位置的槽引用.
+    // 日志落盘之前页面一直被持有，不会被写回，仍然满足先写日志。
+    // 每个线程持有一个"当前页"，一直往里插入直到放不下，再把它还给 pageIndex、换一页。
+    // 当前页闲置太久会被收回（见 reclaimIdlePages()），原来的线程还没发现时同一页可能同时是两个线程的当前页，
+    // 所以往页面里插入时持有页面锁，并且以页面实际的空间为准。
+    @Override
+    public long insert(long xid, byte[] data) throws Exception {
+        byte[] raw = DataItem.wrapDataItemRaw(data);
+        if(raw.length > maxFreeSpace) {
+            throw Error.DataTooLargeException;
+        }
+
+        while(true) {
+            PageInfo pi = currentPage(raw.length);
+            boolean resident = pc.isCached(pi.pgno);
+            Page pg = getCurrentPage(pi);
+            pg.lock();
+            try {
+                if(!makeRoom(pg, raw.length)) {
+                    // 页面的空间被别的线程用掉了，或者暂时不能整理，换一页
+                    pi.freeSpace = PageX.getUsableSpace(pg);
+                    continue;
+                }
+                insertCount.incrementAndGet();
+                if(resident) {
+                    residentInsertCount.incrementAndGet();
+                }
+                int slotRef = PageX.insert(pg, raw);
+                registerXid(xid);
+                logger.log(Recover.insertLog(xid, pi.pgno, new int[]{slotRef}, raw));
+                // 空闲空间要在 release 之前读取，release 之后页面可能被驱逐，页框被复用
+                pi.freeSpace = PageX.getFreeSpace(pg);
+                fsm.set(pi.pgno, pi.freeSpace);
+                return Types.addressToUid(pi.pgno, slotRef);
+            } finally {
+                pg.unlock();
+                pg.release();
+            }
+        }
+    }
+
+    // insertBatch() 把一批数据尽量塞进同一页，每页只记一条插入日志（Raw 为这一页上连续的 DataItem），
+    // 整批日志最后一起写入、只 fsync 一次。日志落盘之前页面一直被持有，不会被写回，仍然满足先写日志。
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        byte[][] raws = new byte[data.size()][];
+        for (int i = 0; i < raws.length; i++) {
+            raws[i] = DataItem.wrapDataItemRaw(data.get(i));
+            if(raws[i].length > maxFreeSpace) {
+                throw Error.DataTooLargeException;
+            }
+        }
+
+        List<Long> uids = new ArrayList<>(raws.length);
+        List<byte[]> logs = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        try {
+            int i = 0;
+            while(i < raws.length) {
+                PageInfo pi = currentPage(raws[i].length);
+                boolean resident = pc.isCached(pi.pgno);
+                Page pg = getCurrentPage(pi);
+                pages.add(pg);
+
+                // 从 i 开始，能放进这一页的都放进去
+                int j = i;
+                pg.lock();
+                try {
+                    List<Integer> slotRefs = new ArrayList<>();
+                    while(j < raws.length && makeRoom(pg, raws[j].length)) {
+                        int slotRef = PageX.insert(pg, raws[j]);
+                        slotRefs.add(slotRef);
+                        uids.add(Types.addressToUid(pi.pgno, slotRef));
+                        j ++;
+                    }
+                    if(j > i) {
+                        int[] refs = slotRefs.stream().mapToInt(Integer::intValue).toArray();
+                        logs.add(Recover.insertLog(xid, pi.pgno, refs, Bytes.concat(Arrays.copyOfRange(raws, i, j))));
+                        pi.freeSpace = PageX.getFreeSpace(pg);
+                        fsm.set(pi.pgno, pi.freeSpace);
+                    } else {
+                        pi.freeSpace = PageX.getUsableSpace(pg);
+                    }
+                } finally {
+                    pg.unlock();
+                }
+
+                insertCount.addAndGet(j - i);
+                if(resident) {
+                    residentInsertCount.addAndGet(j - i);
+                }
+                i = j;
+                if(pages.size() >= batchPages) {
+                    logAndRelease(logs, pages);
+                }
+            }
+        } finally {
+            // 出错时已经写进页面的数据也要先记日志再释放，恢复时按事务状态撤销
+            logAndRelease(logs, pages);
+        }
+        return uids;
+    }
+
+    // insertOverflow() 把 data 切成整页大小的块，每块新建一页单独存放，块之间用 NextUid 串成链，最后一块的 NextUid 为 0。
+    // 从最后一块往前写，这样每块写入时都已经知道下一块的 uid。和 insertBatch() 一样，日志攒起来一起写。
+    // 最后一块通常填不满一页，剩下的空间交给 pIndex，其余页面已经写满。
+    @Override
+    public long insertOverflow(long xid, byte[] data) throws Exception {
+        int chunks = Math.max(1, (data.length + overflowChunkSize - 1) / overflowChunkSize);
+        long next = 0;
+        PageInfo tail = null;
+        List<byte[]> logs = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        try {
+            for(int i = chunks - 1; i >= 0; i --) {
+                int from = i * overflowChunkSize;
+                int to = Math.min(data.length, from + overflowChunkSize);
+                byte[] raw = DataItem.wrapDataItemRaw(Bytes.concat(Parser.long2Byte(next), Arrays.copyOfRange(data, from, to)));
+
+                int pgno = pc.newPage(PageX.initRaw(pageSize));
+                Page pg = pc.getPage(pgno);
+                pages.add(pg);
+                int slotRef = PageX.insert(pg, raw);
+                logs.add(Recover.insertLog(xid, pgno, new int[]{slotRef}, raw));
+                if(tail == null) {
+                    tail = new PageInfo(pgno, PageX.getFreeSpace(pg));
+                } else {
+                    fsm.set(pgno, PageX.getFreeSpace(pg));
+                }
+                next = Types.addressToUid(pgno, slotRef);
+
+                if(pages.size() >= batchPages) {
+                    logAndRelease(logs, pages);
+                }
+            }
+        } finally {
+            logAndRelease(logs, pages);
+            // 日志落盘之后再让别的插入用到最后一块所在页
+            if(tail != null) {
+                addPage(tail.pgno, tail.freeSpace);
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public byte[] readOverflow(long uid) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while(uid != 0) {
+            DataItem di = read(uid);
+            if(di == null) {
+                throw Error.NullEntryException;
+            }
+            try {
+                SubArray s = di.data();
+                uid = Parser.parseLong(Arrays.copyOfRange(s.raw, s.start, s.start + OF_OVERFLOW_CHUNK));
+                out.write(s.raw, s.start + OF_OVERFLOW_CHUNK, s.end - s.start - OF_OVERFLOW_CHUNK);
+            } finally {
+                di.release();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // 取当前线程的当前页，放不下 size 字节时换一页
+    private PageInfo currentPage(int size) {
+        PageInfo pi = current.get();
+        if(pi != null && pageInfos.get(pi.pgno) != pi) {
+            // 闲置太久，已经被收回 pIndex
+            pi = null;
+        }
+        if(pi == null || pi.freeSpace < size) {
+            if(pi != null) {
+                // 当前页放不下了，还给 pIndex
+                returnPage(pi);
+            }
+            pi = claimPage(size);
+            if(pi == null && reclaimIdlePages()) {
+                pi = claimPage(size);
+            }
+            if(pi == null) {
+                // 没有合适的页面，新建一页直接作为当前页
+                int newPgno = pc.newPage(PageX.initRaw(pageSize));
+                pi = heldPage(newPgno, maxFreeSpace);
+                pageInfos.put(newPgno, pi);
+                heldPages.add(pi);
+            }
+            current.set(pi);
+        }
+        pi.lastUsed = System.currentTimeMillis();
+        return pi;
+    }
+
+    // 从 pIndex 中取一页作为当前页，过时的项直接丢弃
+    private PageInfo claimPage(int size) {
+        while(true) {
+            // 优先选已经在缓冲池中的页面，插入时不用再读盘
+            PageInfo pi = pIndex.select(size, pc::isCached);
+            if(pi == null) {
+                return null;
+            }
+            PageInfo held = heldPage(pi.pgno, pi.freeSpace);
+            if(pageInfos.replace(pi.pgno, pi, held) || pageInfos.putIfAbsent(pi.pgno, held) == null) {
+                heldPages.add(held);
+                return held;
+            }
+        }
+    }
+
+    private static PageInfo heldPage(int pgno, int freeSpace) {
+        PageInfo pi = new PageInfo(pgno, freeSpace);
+        pi.held = true;
+        return pi;
+    }
+
+    // 当前页还给 pIndex。已经被收回时什么也不做，一页只会被放回一次
+    private void returnPage(PageInfo held) {
+        heldPages.remove(held);
+        PageInfo pi = new PageInfo(held.pgno, held.freeSpace);
+        if(pageInfos.replace(held.pgno, held, pi)) {
+            fsm.set(pi.pgno, pi.freeSpace);
+            pIndex.add(pi);
+        }
+    }
+
+    // 把闲置超过 HELD_PAGE_IDLE_MS 的当前页收回 pIndex，持有它们的线程可能已经不再插入了。
+    // 当前页只有几个线程那么多，在 pIndex 取不到页面、要新建页面之前才检查，返回是否收回了页面
+    private boolean reclaimIdlePages() {
+        long deadline = System.currentTimeMillis() - HELD_PAGE_IDLE_MS;
+        boolean reclaimed = false;
+        for(PageInfo held : heldPages) {
+            if(held.lastUsed < deadline) {
+                returnPage(held);
+                reclaimed = true;
+            }
+        }
+        return reclaimed;
+    }
+
+    // 取当前页，取不到时放弃当前页，把它还给 pIndex
+    private Page getCurrentPage(PageInfo pi) throws Exception {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pi.pgno);
+        } finally {
+            if(pg == null) {
+                current.remove();
+                returnPage(pi);
+            }
+        }
+        return pg;
+    }
+
+    // 页面能否放下 length 字节，需要时先整理页面。调用方持有页面锁。
+    // 整理会移动页内数据，只有当前线程是这一页唯一的持有者时才能整理，否则别人手里的 DataItem 会失效
+    private boolean makeRoom(Page pg, int length) {
+        if(PageX.getUsableSpace(pg) >= length) {
+            return true;
+        }
+        if(PageX.getFreeSpace(pg) < length || pc.getReferences(pg.getPageNumber()) > 1) {
+            return false;
+        }
+        PageX.compact(pg);
+        return PageX.getUsableSpace(pg) >= length;
+    }
+
+    private void logAndRelease(List<byte[]> logs, List<Page> pages) {
+        if(!logs.isEmpty()) {
+            registerXid(Recover.getXid(logs.get(0)));
+        }
+        logger.log(logs);
+        for (Page pg : pages) {
+            pg.release();
+        }
+        logs.clear();
+        pages.clear();
+    }
+
+    /**
+     * 插入次数
+     */
+    public long getInsertCount() {
+        return insertCount.get();
+    }
+
+    /**
+     * 插入时目标页面已经在缓冲池中的次数
+     */
+    public long getResidentInsertCount() {
+        return residentInsertCount.get();
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    void startCheckpointer(DMOptions opt) {
+        if(opt.checkpointInterval > 0 || opt.checkpointLogSize > 0) {
+            checkpointer = new Checkpointer(this, opt.checkpointInterval, opt.checkpointLogSize);
+            checkpointer.start();
+        }
+    }
+
+    // 事务写第一条日志之前记下当前日志的末尾，它的日志都不早于这个位置
+    private void registerXid(long xid) {
+        if(firstLsns.containsKey(xid)) {
+            return;
+        }
+        synchronized(firstLsns) {
+            firstLsns.putIfAbsent(xid, logger.end());
+            if(firstLsns.size() >= firstLsnPruneAt) {
+                pruneFirstLsns();
+                firstLsnPruneAt = Math.max(FIRST_LSN_PRUNE, firstLsns.size() * 2);
+            }
+        }
+    }
+
+    // 持有 firstLsns 的锁时调用
+    private void pruneFirstLsns() {
+        firstLsns.keySet().removeIf(xid -> !tm.isActive(xid));
+    }
+
+    /**
+     * 做一次模糊检查点，返回是否成功
+     *
+     * 1. 记下当前日志的末尾 redoLsn，以及还活跃的事务中最早的第一条日志 undoLsn
+     * 2. 把此刻缓冲池中的脏页全部写回并 fsync，期间不阻塞其他事务的读写，再把空闲空间表写回并 fsync
+     * 3. 写一条检查点日志，记录 redoLsn、undoLsn、页面数和活跃事务表，再把它的 LSN 写进第一页
+     * 4. 回收 min(redoLsn, undoLsn) 之前的日志段
+     * 页面上没有记录 LSN，无法得知每个脏页最早的修改位置，所以先写回所有脏页，
+     * 之后 redoLsn 之前的修改都已经在数据文件里了，恢复时从 redoLsn 开始重做即可。
+     */
+    @Override
+    public boolean checkpoint() {
+        checkpointLock.lock();
+        try {
+            long redoLsn, undoLsn;
+            Map<Long, Long> active;
+            synchronized(firstLsns) {
+                redoLsn = logger.end();
+                pruneFirstLsns();
+                active = new HashMap<>(firstLsns);
+            }
+            undoLsn = redoLsn;
+            for(long lsn : active.values()) {
+                undoLsn = Math.min(undoLsn, lsn);
+            }
+            int pageCount = pc.getPageNumber();
+            if(!pc.flushDirty(CHECKPOINT_FLUSH_TIMEOUT)) {
+                return false;
+            }
+            // 空闲空间表随检查点落盘，异常关闭后只有恢复时重做、撤销的页面需要更新
+            fsm.flush(pageCount);
+            long lsn = logger.log(Recover.checkpointLog(redoLsn, undoLsn, pageCount, active));
+            PageOne.setCheckpoint(pageOne, lsn);
+            pc.flushPage(pageOne);
+            logger.recycle(undoLsn);
+            return true;
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // DataManager 正常关闭时，需要执行缓存和日志的关闭流程，不要忘了设置第一页的字节校验:
+    @Override
+    public void close() {
+        if(checkpointer != null) {
+            checkpointer.stop();
+        }
+        super.close();
+        logger.close();
+
+        // 空闲空间表先落盘，再写关闭校验字节，校验通过时表一定是完整的
+        fsm.flush(pc.getPageNumber());
+        fsm.close();
+        PageOne.setVcClose(pageOne);
+        pageOne.release();
+        pc.close();
+    }
+
+    // 为xid生成update日志
+    // DataItem 被置为无效时，所在页多出了整理后可以回收的空间，把页面重新放入 pIndex。
+    // 页面已经在 pIndex 中时换成空间更大的一项，是某个线程的当前页时只更新空闲空间表，见 addPage()
+    public void logDataItem(long xid, DataItem di) {
+        byte[] log = Recover.updateLog(xid, di);
+        registerXid(xid);
+        logger.log(log);
+        if(!((DataItemImpl)di).isValid()) {
+            Page pg = di.page();
+            int free;
+            pg.lock();
+            try {
+                free = PageX.getFreeSpace(pg);
+            } finally {
+                pg.unlock();
+            }
+            addPage(pg.getPageNumber(), free);
+        }
+    }
+
+    public byte[] takeOldRaw(int length) {
+        return oldRawPool.take(length);
+    }
+
+    public void giveOldRaw(byte[] oldRaw) {
+        oldRawPool.give(oldRaw);
+    }
+
+    public void releaseDataItem(DataItem di) {
+        super.release(di.getUid());
+    }
+
+    // DataItem 缓存，getForCache()，只需要从 key 中解析出页号，从 pageCache 中获取到页面，再根据槽引用，解析出 DataItem 即可：
+    // UID的结构是[pgno(32 bits)][slotRef(32 bits)],slotRef 由槽的版本号和槽号组成,见 PageX
+    // 整理页面会移动页内数据，解析时持有页面锁
+    @Override
+    protected DataItem getForCache(long uid) throws Exception {
+        int slotRef = (int)(uid & ((1L << 32) - 1));
+        int pgno = (int)(uid >>> 32);
+        Page pg = pc.getPage(pgno);
+        pg.lock();
+        try {
+            return DataItem.parseDataItem(pg, slotRef, uid, this);
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    // DataItem 缓存释放，需要将 DataItem 写回数据源，由于对文件的读写是以页为单位进行的，只需要将 DataItem 所在的页 release 即可:
+    @Override
+    protected void releaseForCache(DataItem di) {
+        di.page().release();
+    }
+
+    // 在创建文件时初始化PageOne
+    void initPageOne() {
+        int pgno = pc.newPage(PageOne.InitRaw(pageSize, pc.isCompressed()));
+        assert pgno == 1;
+        try {
+            pageOne = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        pc.flushPage(pageOne);
+    }
+
+    // 在打开已有文件时时读入PageOne，并验证正确性
+    boolean loadCheckPageOne() {
+        try {
+            pageOne = pc.getPage(1);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return PageOne.checkVc(pageOne);
+    }
+
+    // 上一次正常关闭时，直接从空闲空间表重建 PageIndex，不用读所有页面
+    boolean loadPageIndex() {
+        return fsm.load(pc.getPageNumber(), pIndex);
+    }
+
+    // 页面放入 PageIndex，同时更新空闲空间表。
+    // 页面是某个线程的当前页时只更新空闲空间，已经在 PageIndex 中时换成新的一项，旧的一项就过时了
+    private void addPage(int pgno, int freeSpace) {
+        fsm.set(pgno, freeSpace);
+        PageInfo pi = new PageInfo(pgno, freeSpace);
+        PageInfo cur = pageInfos.compute(pgno, (k, v) -> {
+            if(v != null && v.held) {
+                v.freeSpace = freeSpace;
+                return v;
+            }
+            return pi;
+        });
+        if(cur == pi) {
+            pIndex.add(pi);
+        }
+    }
+
+    // 在DataManager被创建时,需要获取所有页面并填充 PageIndex:
+    // 初始化pageIndex
+    void fillPageIndex() {
+        fillPageIndex(1);
+    }
+
+    // 空闲空间表覆盖的前 covered 页直接用表中的空闲空间，之后的页面读出来计算
+    void fillPageIndex(int covered) {
+        int pageNumber = pc.getPageNumber();
+        covered = Math.min(covered, pageNumber);
+        fsm.fill(covered, pIndex);
+        int first = Math.max(2, covered + 1);
+        if(first > pageNumber) {
+            return;
+        }
+        // 按页号顺序读完这些页面，提示页面缓存预读，后续窗口由顺序访问检测接上
+        pc.prefetch(first, pageNumber - first + 1);
+        for(int i = first; i <= pageNumber; i ++) {
+            Page pg = null;
+            try {
+                pg = pc.getPage(i);
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+            PageX.initIfBlank(pg);
+            addPage(pg.getPageNumber(), PageX.getFreeSpace(pg));
+            pg.release();
+        }
+    }
+    
+}
@@ -1,35 +1,41 @@
 package top.guoziyang.mydb.backend.dm;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
 
 import com.google.common.primitives.Bytes;
 
+import top.guoziyang.mydb.backend.common.LongObjectMap;
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.logger.Logger;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageIndex.FreeSpaceMap;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
 
 // 数据库就会恢复到所有已完成事务结束，所有未完成事务尚未开始的状态。
 public class Recover {
 
     private static final byte LOG_TYPE_INSERT = 0;
     private static final byte LOG_TYPE_UPDATE = 1;
+    private static final byte LOG_TYPE_CHECKPOINT = 2;
     // (Ti, I, A, x)，表示事务 Ti 在 A 位置插入了一条数据 x
     // (Ti, U, A, oldx, newx)，表示事务 Ti 将 A 位置的数据，从 oldx 更新成 newx
     // updateLog:
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
     // insertLog:
-    // [LogType] [XID] [Pgno] [Offset] [Raw]
+    // [LogType] [XID] [Pgno] [Count] [SlotRef1] ... [SlotRefN] [Raw]
+    // UID 的低 32 位是槽引用 SlotRef，见 PageX
+    // checkpointLog:
+    // [LogType] [RedoLsn] [UndoLsn] [PageCount] [Count] [XID1] [FirstLsn1] ... [XIDN] [FirstLsnN]
 
     private static final int REDO = 0;
     private static final int UNDO = 1;
@@ -37,120 +43,265 @@ public class Recover {
     static class InsertLogInfo {
         long xid;
         int pgno;
-        short offset;
+        int[] slotRefs;
         byte[] raw;
     }
 
+    static class CheckpointLogInfo {
+        long redoLsn;
+        long undoLsn;
+        int pageCount;
+        Map<Long, Long> firstLsns;
+    }
+
     static class UpdateLogInfo {
         long xid;
         int pgno;
-        short offset;
+        int slotRef;
         byte[] oldRaw;
         byte[] newRaw;
     }
 
+    // 一组按写入顺序排列的 LSN，恢复时代替日志本身留在内存中
+    static class LsnList {
+        long[] lsns = new long[4];
+        int size;
+
+        void add(long lsn) {
+            if(size == lsns.length) {
+                lsns = Arrays.copyOf(lsns, size * 2);
+            }
+            lsns[size++] = lsn;
+        }
+    }
+
+    // 分析阶段的结果
+    static class Analysis {
+        int maxPgno;
+        // 每个页面要重做的日志
+        LongObjectMap<LsnList> redoPages = new LongObjectMap<>();
+        // 每个活跃事务要撤销的日志
+        LongObjectMap<LsnList> undoXids = new LongObjectMap<>();
+    }
+
     public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+        recover(tm, lg, pc, 0, 1, null);
+    }
+
+    /**
+     * @param checkpoint 最近一次检查点日志的 LSN，0 表示没有检查点，从头读日志
+     *
+     * 检查点之前修改过的页面都已经写回，重做从检查点开始时的 redoLsn 开始；
+     * 撤销要从检查点时还活跃的事务的第一条日志开始，即 undoLsn。更早的日志不用再读，可能已经被回收了。
+     *
+     * 日志只顺序读一遍（分析），记下最大页号、每个页面要重做的日志和每个活跃事务的日志的 LSN。
+     * 事务的状态在 XID 文件里，读日志时就知道一条日志该重做还是撤销。
+     * 重做按页面进行，每个页面只取一次，把它的日志按顺序全部重放；
+     * 撤销按 LSN 从后往前逐条读日志。内存中只有 LSN，不保存日志内容。
+     * redoThreads 大于 1 时并行重做：页面按页号散列到各个线程，同一页面的日志仍由一个线程按顺序重放，
+     * 全部重做完之后再开始撤销。
+     * 重做和撤销都只修改缓冲池中的页面，最后一起写回、只 fsync 一次，之后才把活跃事务标记为已撤销。
+     * fsm 不为 null 时，重做、撤销过的页面在其中更新空闲空间，其余页面的空闲空间没有变化。
+     */
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc, long checkpoint, int redoThreads, FreeSpaceMap fsm) {
         System.out.println("Recovering...");
 
-        lg.rewind();
-        int maxPgno = 0;
-        while(true) {
+        long redoLsn = -1, undoLsn = -1;
+        int pageCount = 0;
+        if(checkpoint != 0) {
+            lg.seek(checkpoint);
             byte[] log = lg.next();
-            if(log == null) break;
-            int pgno;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
-            }
-            if(pgno > maxPgno) {
-                maxPgno = pgno;
+            if(log == null || !isCheckpointLog(log)) {
+                Panic.panic(Error.BadLogFileException);
             }
+            CheckpointLogInfo ci = parseCheckpointLog(log);
+            redoLsn = ci.redoLsn;
+            undoLsn = ci.undoLsn;
+            pageCount = ci.pageCount;
+            System.out.println("Recover from checkpoint at " + checkpoint + ".");
         }
-        if(maxPgno == 0) {
-            maxPgno = 1;
-        }
+
+        Analysis an = analyze(tm, lg, Math.min(redoLsn, undoLsn), redoLsn);
+        int maxPgno = Math.max(1, Math.max(pageCount, an.maxPgno));
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
 
-        redoTranscations(tm, lg, pc);
+        if(redoThreads > 1) {
+            redoPagesParallel(lg, pc, an, redoThreads, fsm);
+        } else {
+            redoPages(lg, pc, an, fsm);
+        }
         System.out.println("Redo Transactions Over.");
 
-        undoTranscations(tm, lg, pc);
+        undoTranscations(lg, pc, an, fsm);
+        if(!pc.flushDirty(FLUSH_TIMEOUT)) {
+            Panic.panic(Error.DatabaseBusyException);
+        }
+        for(long xid : an.undoXids.keys()) {
+            tm.abort(xid);
+        }
         System.out.println("Undo Transactions Over.");
 
         System.out.println("Recovery Over.");
     }
 
-    // 和原理中描述的类似，recover 例程主要也是两步：重做所有已完成事务，撤销所有未完成事务：
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
+    // 恢复期间没有别的线程持有页面，写回不会等待，这里只是一个上限
+    private static final long FLUSH_TIMEOUT = 60000;
+
+    // 从 startLsn 开始（-1 为从头）读一遍日志
+    static Analysis analyze(TransactionManager tm, Logger lg, long startLsn, long redoLsn) {
+        Analysis an = new Analysis();
+        if(startLsn < 0) {
+            lg.rewind();
+        } else {
+            lg.seek(startLsn);
+        }
         while(true) {
             byte[] log = lg.next();
             if(log == null) break;
-            if(isInsertLog(log)) {
-                // me:为插入日志
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(!tm.isActive(xid)) {
-                    // me:不是活跃的,即已完成的,则我们重新完成
-                    doInsertLog(pc, log, REDO);
-                }
-            } else {
-                // me:为更新日志
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
+            if(isCheckpointLog(log)) {
+                continue;
+            }
+            long lsn = lg.lastLsn();
+            long xid = getXid(log);
+            int pgno = isInsertLog(log) ? parseInsertPgno(log) : parseUpdatePgno(log);
+            an.maxPgno = Math.max(an.maxPgno, pgno);
+            if(tm.isActive(xid)) {
+                // me:活跃中,则要撤回这些事务
+                index(an.undoXids, xid, lsn);
+            } else if(lsn >= redoLsn) {
+                // me:不是活跃的,即已完成的,则我们重新完成
+                index(an.redoPages, pgno, lsn);
             }
         }
+        return an;
     }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
-        while(true) {
-            byte[] log = lg.next();
-            if(log == null) break;
-            if(isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if(tm.isActive(xid)) {
-                    // me:活跃中,则要撤回这些事务
-                    if(!logCache.containsKey(xid)) {
-                        // me:未完成的事务,放入到logCache中
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if(tm.isActive(xid)) {
-                    // me:活跃中,则要撤回这些事务
-                    if(!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
+    private static void index(LongObjectMap<LsnList> map, long key, long lsn) {
+        LsnList list = map.get(key);
+        if(list == null) {
+            list = new LsnList();
+            map.put(key, list);
+        }
+        list.add(lsn);
+    }
+
+    // 和原理中描述的类似，recover 例程主要也是两步：重做所有已完成事务，撤销所有未完成事务：
+    // 不同页面的日志互不相关，按页号顺序逐页重放，同一页面的日志保持写入顺序
+    private static void redoPages(Logger lg, PageCache pc, Analysis an, FreeSpaceMap fsm) {
+        long[] pgnos = an.redoPages.keys();
+        Arrays.sort(pgnos);
+        for(long pgno : pgnos) {
+            redoPage(lg, pc, (int)pgno, an.redoPages.get(pgno), fsm);
+        }
+    }
+
+    // 页面按页号散列到 threads 个队列，每个线程重放自己队列中的页面，全部完成后返回
+    private static void redoPagesParallel(Logger lg, PageCache pc, Analysis an, int threads, FreeSpaceMap fsm) {
+        long[] pgnos = an.redoPages.keys();
+        Arrays.sort(pgnos);
+        long[][] queues = new long[threads][];
+        int[] sizes = new int[threads];
+        for(int i = 0; i < threads; i ++) {
+            queues[i] = new long[pgnos.length / threads + 1];
+        }
+        for(long pgno : pgnos) {
+            int w = (int)(pgno % threads);
+            queues[w][sizes[w]++] = pgno;
+        }
+
+        CountDownLatch done = new CountDownLatch(threads);
+        for(int i = 0; i < threads; i ++) {
+            long[] queue = queues[i];
+            int size = sizes[i];
+            Thread t = new Thread(() -> {
+                try {
+                    for(int j = 0; j < size; j ++) {
+                        redoPage(lg, pc, (int)queue[j], an.redoPages.get(queue[j]), fsm);
                     }
-                    logCache.get(xid).add(log);
+                } finally {
+                    done.countDown();
                 }
+            }, "recover-redo-" + i);
+            t.start();
+        }
+        try {
+            done.await();
+        } catch(InterruptedException e) {
+            Panic.panic(e);
+        }
+    }
+
+    static void redoPage(Logger lg, PageCache pc, int pgno, LsnList lsns, FreeSpaceMap fsm) {
+        Page pg = getPage(pc, pgno);
+        try {
+            for(int i = 0; i < lsns.size; i ++) {
+                applyLog(pg, readLog(lg, lsns.lsns[i]), REDO);
             }
+            updateFreeSpace(fsm, pg);
+        } finally {
+            pg.release();
         }
+    }
 
-        // 对所有active log进行倒序undo
-        for(Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
-            List<byte[]> logs = entry.getValue();
-            for (int i = logs.size()-1; i >= 0; i --) {
-                byte[] log = logs.get(i);
-                if(isInsertLog(log)) {
-                    doInsertLog(pc, log, UNDO);
-                } else {
-                    doUpdateLog(pc, log, UNDO);
-                }
+    // 所有活跃事务的日志按 LSN 从大到小撤销
+    private static void undoTranscations(Logger lg, PageCache pc, Analysis an, FreeSpaceMap fsm) {
+        int total = 0;
+        for(long xid : an.undoXids.keys()) {
+            total += an.undoXids.get(xid).size;
+        }
+        long[] lsns = new long[total];
+        int n = 0;
+        for(long xid : an.undoXids.keys()) {
+            LsnList list = an.undoXids.get(xid);
+            System.arraycopy(list.lsns, 0, lsns, n, list.size);
+            n += list.size;
+        }
+        Arrays.sort(lsns);
+        for(int i = lsns.length - 1; i >= 0; i --) {
+            byte[] log = readLog(lg, lsns[i]);
+            int pgno = isInsertLog(log) ? parseInsertPgno(log) : parseUpdatePgno(log);
+            Page pg = getPage(pc, pgno);
+            try {
+                applyLog(pg, log, UNDO);
+                updateFreeSpace(fsm, pg);
+            } finally {
+                pg.release();
             }
-            tm.abort(entry.getKey());
+        }
+    }
+
+    private static void updateFreeSpace(FreeSpaceMap fsm, Page pg) {
+        if(fsm != null) {
+            fsm.set(pg.getPageNumber(), PageX.getFreeSpace(pg));
+        }
+    }
+
+    private static byte[] readLog(Logger lg, long lsn) {
+        byte[] log = lg.read(lsn);
+        if(log == null) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        return log;
+    }
+
+    // 日志只涉及数据页。预分配出来、崩溃前没有写回过的页面全为 0，先初始化为空页面再重做或撤销
+    private static Page getPage(PageCache pc, int pgno) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(pgno);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        PageX.initIfBlank(pg);
+        return pg;
+    }
+
+    private static void applyLog(Page pg, byte[] log, int flag) {
+        if(isInsertLog(log)) {
+            doInsertLog(pg, log, flag);
+        } else {
+            doUpdateLog(pg, log, flag);
         }
     }
 
@@ -158,6 +309,15 @@ public class Recover {
         return log[0] == LOG_TYPE_INSERT;
     }
 
+    // 插入日志和更新日志的 XID
+    static long getXid(byte[] log) {
+        return Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_XID+8));
+    }
+
+    private static boolean isCheckpointLog(byte[] log) {
+        return log[0] == LOG_TYPE_CHECKPOINT;
+    }
+
     // [LogType] [XID] [UID] [OldRaw] [NewRaw]
     private static final int OF_TYPE = 0;
     private static final int OF_XID = OF_TYPE+1;
@@ -168,17 +328,21 @@ public class Recover {
         byte[] logType = {LOG_TYPE_UPDATE};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] uidRaw = Parser.long2Byte(di.getUid());
-        byte[] oldRaw = di.getOldRaw();
+        // oldRaw 可能是从缓冲池借来的，比数据长，只取前 length 个字节
         SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        int length = raw.end - raw.start;
+        byte[] log = new byte[OF_UPDATE_RAW + length * 2];
+        System.arraycopy(Bytes.concat(logType, xidRaw, uidRaw), 0, log, 0, OF_UPDATE_RAW);
+        System.arraycopy(di.getOldRaw(), 0, log, OF_UPDATE_RAW, length);
+        System.arraycopy(raw.raw, raw.start, log, OF_UPDATE_RAW + length, length);
+        return log;
     }
 
     private static UpdateLogInfo parseUpdateLog(byte[] log) {
         UpdateLogInfo li = new UpdateLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
         long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-        li.offset = (short)(uid & ((1L << 16) - 1));
+        li.slotRef = (int)(uid & ((1L << 32) - 1));
         uid >>>= 32;
         li.pgno = (int)(uid & ((1L << 32) - 1));
         int length = (log.length - OF_UPDATE_RAW) / 2;
@@ -187,72 +351,103 @@ public class Recover {
         return li;
     }
 
-    private static void doUpdateLog(PageCache pc, byte[] log, int flag) {
-        int pgno;
-        short offset;
-        byte[] raw;
-        if(flag == REDO) {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.newRaw;
-        } else {
-            UpdateLogInfo xi = parseUpdateLog(log);
-            pgno = xi.pgno;
-            offset = xi.offset;
-            raw = xi.oldRaw;
-        }
-        Page pg = null;
-        try {
-            pg = pc.getPage(pgno);
-        } catch (Exception e) {
-            Panic.panic(e);
-        }
-        try {
-            PageX.recoverUpdate(pg, raw, offset);
-        } finally {
-            pg.release();
-        }
+    // 只解析页号，不复制数据
+    private static int parseUpdatePgno(byte[] log) {
+        return Parser.parseInt(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_UID+4));
     }
 
-    // [LogType] [XID] [Pgno] [Offset] [Raw]
+    private static void doUpdateLog(Page pg, byte[] log, int flag) {
+        UpdateLogInfo xi = parseUpdateLog(log);
+        byte[] raw = flag == REDO ? xi.newRaw : xi.oldRaw;
+        PageX.recoverUpdate(pg, raw, xi.slotRef);
+    }
+
+    // [LogType] [XID] [Pgno] [Count] [SlotRef1] ... [SlotRefN] [Raw]
+    // Raw 是 Count 个连续的 DataItem，第 i 个放在 SlotRef(i) 指向的槽中。批量插入时一页只记一条
     private static final int OF_INSERT_PGNO = OF_XID+8;
-    private static final int OF_INSERT_OFFSET = OF_INSERT_PGNO+4;
-    private static final int OF_INSERT_RAW = OF_INSERT_OFFSET+2;
+    private static final int OF_INSERT_COUNT = OF_INSERT_PGNO+4;
+    private static final int OF_INSERT_SLOTS = OF_INSERT_COUNT+2;
 
-    public static byte[] insertLog(long xid, Page pg, byte[] raw) {
+    public static byte[] insertLog(long xid, int pgno, int[] slotRefs, byte[] raw) {
         byte[] logTypeRaw = {LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageX.getFSO(pg));
-        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+        byte[] pgnoRaw = Parser.int2Byte(pgno);
+        byte[] countRaw = Parser.short2Byte((short)slotRefs.length);
+        byte[] slotsRaw = new byte[slotRefs.length * 4];
+        for (int i = 0; i < slotRefs.length; i++) {
+            System.arraycopy(Parser.int2Byte(slotRefs[i]), 0, slotsRaw, i * 4, 4);
+        }
+        return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, countRaw, slotsRaw, raw);
     }
 
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo li = new InsertLogInfo();
         li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
+        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_COUNT));
+        int count = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_COUNT, OF_INSERT_SLOTS));
+        li.slotRefs = new int[count];
+        for (int i = 0; i < count; i++) {
+            int pos = OF_INSERT_SLOTS + i * 4;
+            li.slotRefs[i] = Parser.parseInt(Arrays.copyOfRange(log, pos, pos + 4));
+        }
+        li.raw = Arrays.copyOfRange(log, OF_INSERT_SLOTS + count * 4, log.length);
         return li;
     }
 
-    private static void doInsertLog(PageCache pc, byte[] log, int flag) {
+    private static int parseInsertPgno(byte[] log) {
+        return Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_COUNT));
+    }
+
+    private static void doInsertLog(Page pg, byte[] log, int flag) {
         InsertLogInfo li = parseInsertLog(log);
-        Page pg = null;
-        try {
-            pg = pc.getPage(li.pgno);
-        } catch(Exception e) {
-            Panic.panic(e);
+        if(flag == UNDO) {
+            // 将该条日志中所有DataItem的有效位设置为无效
+            DataItem.setDataItemsRawInvalid(li.raw);
         }
-        try {
-            if(flag == UNDO) {
-                // 将该条DataItem的有效位设置为无效
-                DataItem.setDataItemRawInvalid(li.raw);
-            }
-            PageX.recoverInsert(pg, li.raw, li.offset);
-        } finally {
-            pg.release();
+        int pos = 0;
+        for (int slotRef : li.slotRefs) {
+            int length = DataItem.rawLength(li.raw, pos);
+            PageX.recoverInsert(pg, Arrays.copyOfRange(li.raw, pos, pos + length), slotRef);
+            pos += length;
+        }
+    }
+
+    // [LogType] [RedoLsn] [UndoLsn] [PageCount] [Count] [XID1] [FirstLsn1] ... [XIDN] [FirstLsnN]
+    // 检查点开始前修改过的页面都已经写回，脏页表退化为一个位置：redoLsn 之后的日志涉及的页面
+    private static final int OF_CKPT_REDO = OF_TYPE+1;
+    private static final int OF_CKPT_UNDO = OF_CKPT_REDO+8;
+    private static final int OF_CKPT_PAGES = OF_CKPT_UNDO+8;
+    private static final int OF_CKPT_COUNT = OF_CKPT_PAGES+4;
+    private static final int OF_CKPT_XIDS = OF_CKPT_COUNT+4;
+
+    public static byte[] checkpointLog(long redoLsn, long undoLsn, int pageCount, Map<Long, Long> firstLsns) {
+        byte[] log = new byte[OF_CKPT_XIDS + firstLsns.size() * 16];
+        log[OF_TYPE] = LOG_TYPE_CHECKPOINT;
+        System.arraycopy(Parser.long2Byte(redoLsn), 0, log, OF_CKPT_REDO, 8);
+        System.arraycopy(Parser.long2Byte(undoLsn), 0, log, OF_CKPT_UNDO, 8);
+        System.arraycopy(Parser.int2Byte(pageCount), 0, log, OF_CKPT_PAGES, 4);
+        System.arraycopy(Parser.int2Byte(firstLsns.size()), 0, log, OF_CKPT_COUNT, 4);
+        int pos = OF_CKPT_XIDS;
+        for(Entry<Long, Long> e : firstLsns.entrySet()) {
+            System.arraycopy(Parser.long2Byte(e.getKey()), 0, log, pos, 8);
+            System.arraycopy(Parser.long2Byte(e.getValue()), 0, log, pos+8, 8);
+            pos += 16;
+        }
+        return log;
+    }
+
+    static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        CheckpointLogInfo ci = new CheckpointLogInfo();
+        ci.redoLsn = Parser.parseLong(Arrays.copyOfRange(log, OF_CKPT_REDO, OF_CKPT_UNDO));
+        ci.undoLsn = Parser.parseLong(Arrays.copyOfRange(log, OF_CKPT_UNDO, OF_CKPT_PAGES));
+        ci.pageCount = Parser.parseInt(Arrays.copyOfRange(log, OF_CKPT_PAGES, OF_CKPT_COUNT));
+        int count = Parser.parseInt(Arrays.copyOfRange(log, OF_CKPT_COUNT, OF_CKPT_XIDS));
+        ci.firstLsns = new HashMap<>();
+        for(int i = 0; i < count; i ++) {
+            int pos = OF_CKPT_XIDS + i * 16;
+            ci.firstLsns.put(Parser.parseLong(Arrays.copyOfRange(log, pos, pos+8)),
+                    Parser.parseLong(Arrays.copyOfRange(log, pos+8, pos+16)));
         }
+        return ci;
     }
 }
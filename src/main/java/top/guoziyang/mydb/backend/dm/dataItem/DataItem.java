@@ -1,49 +1,80 @@
-package top.guoziyang.mydb.backend.dm.dataItem;
-
-import java.util.Arrays;
-
-import com.google.common.primitives.Bytes;
-
-import top.guoziyang.mydb.backend.common.SubArray;
-import top.guoziyang.mydb.backend.dm.DataManagerImpl;
-import top.guoziyang.mydb.backend.dm.page.Page;
-import top.guoziyang.mydb.backend.utils.Parser;
-import top.guoziyang.mydb.backend.utils.Types;
-
-public interface DataItem {
-    SubArray data();
-    
-    void before();
-    void unBefore();
-    void after(long xid);
-    void release();
-
-    void lock();
-    void unlock();
-    void rLock();
-    void rUnLock();
-
-    Page page();
-    long getUid();
-    byte[] getOldRaw();
-    SubArray getRaw();
-
-    public static byte[] wrapDataItemRaw(byte[] raw) {
-        byte[] valid = new byte[1];
-        byte[] size = Parser.short2Byte((short)raw.length);
-        return Bytes.concat(valid, size, raw);
-    }
-
-    // 从页面的offset处解析处dataitem
-    public static DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
-        byte[] raw = pg.getData();
-        short size = Parser.parseShort(Arrays.copyOfRange(raw, offset+DataItemImpl.OF_SIZE, offset+DataItemImpl.OF_DATA));
-        short length = (short)(size + DataItemImpl.OF_DATA);
-        long uid = Types.addressToUid(pg.getPageNumber(), offset);
-        return new DataItemImpl(new SubArray(raw, offset, offset+length), new byte[length], pg, uid, dm);
-    }
-
-    public static void setDataItemRawInvalid(byte[] raw) {
-        raw[DataItemImpl.OF_VALID] = (byte)1;
-    }
-}
+package top.guoziyang.mydb.backend.dm.dataItem;
+
+import java.util.Arrays;
+
+import com.google.common.primitives.Bytes;
+
+import top.guoziyang.mydb.backend.common.SubArray;
+import top.guoziyang.mydb.backend.dm.DataManagerImpl;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageX;
+import top.guoziyang.mydb.backend.utils.Parser;
+
+public interface DataItem {
+    SubArray data();
+    
+    void before();
+    void unBefore();
+    void after(long xid);
+    void release();
+
+    void lock();
+    void unlock();
+    void rLock();
+    void rUnLock();
+
+    Page page();
+    long getUid();
+    // 前相数据，只在 before() 到 after()/unBefore() 之间有效，长度可能大于 getRaw() 的长度
+    byte[] getOldRaw();
+    SubArray getRaw();
+
+    public static byte[] wrapDataItemRaw(byte[] raw) {
+        byte[] valid = new byte[1];
+        byte[] size = Parser.short2Byte((short)raw.length);
+        return Bytes.concat(valid, size, raw);
+    }
+
+    // 从页面中解析出槽引用 slotRef 指向的 dataitem
+    // 槽已经被回收或复用时，返回一个无效的 DataItem
+    public static DataItem parseDataItem(Page pg, int slotRef, long uid, DataManagerImpl dm) {
+        byte[] raw = pg.getData();
+        int offset = PageX.getOffset(pg, slotRef);
+        if(offset == 0) {
+            byte[] invalid = wrapDataItemRaw(new byte[0]);
+            setDataItemRawInvalid(invalid);
+            return new DataItemImpl(new SubArray(invalid, 0, invalid.length), pg, uid, dm);
+        }
+        int length = rawLength(raw, offset);
+        return new DataItemImpl(new SubArray(raw, offset, offset+length), pg, uid, dm);
+    }
+
+    // 页面 raw 中 offset 处的 DataItem 是否有效
+    public static boolean isRawValid(byte[] raw, int offset) {
+        return raw[offset+DataItemImpl.OF_VALID] == (byte)0;
+    }
+
+    // 页面 raw 中 offset 处的 DataItem 的总长度
+    public static int rawLength(byte[] raw, int offset) {
+        int size = (raw[offset+DataItemImpl.OF_SIZE] & 0xFF) << 8 | (raw[offset+DataItemImpl.OF_SIZE+1] & 0xFF);
+        return size + DataItemImpl.OF_DATA;
+    }
+
+    public static void setDataItemRawInvalid(byte[] raw) {
+        raw[DataItemImpl.OF_VALID] = (byte)1;
+    }
+
+    public static void setDataItemRawInvalid(SubArray raw) {
+        raw.raw[raw.start+DataItemImpl.OF_VALID] = (byte)1;
+    }
+
+    // raw 中可能连续放着多个 DataItem（批量插入时一页只记一条日志），全部设置为无效
+    public static void setDataItemsRawInvalid(byte[] raw) {
+        int pos = 0;
+        while(pos + DataItemImpl.OF_DATA <= raw.length) {
+            raw[pos+DataItemImpl.OF_VALID] = (byte)1;
+            short size = Parser.parseShort(Arrays.copyOfRange(raw, pos+DataItemImpl.OF_SIZE, pos+DataItemImpl.OF_DATA));
+            pos += DataItemImpl.OF_DATA + size;
+        }
+    }
+}
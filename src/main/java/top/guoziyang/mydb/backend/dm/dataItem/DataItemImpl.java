@@ -24,9 +24,10 @@ public class DataItemImpl implements DataItem {
 
     static final int OF_VALID = 0;
     static final int OF_SIZE = 1;
-    static final int OF_DATA = 3;
+    public static final int OF_DATA = 3;
 
     private SubArray raw;
+    // 前相数据，只在 before() 时从 dm 的缓冲池借出，after()/unBefore() 时归还。读路径不用分配
     private byte[] oldRaw;
     private Lock rLock;
     private Lock wLock;
@@ -34,9 +35,8 @@ public class DataItemImpl implements DataItem {
     private long uid;
     private Page pg;
 
-    public DataItemImpl(SubArray raw, byte[] oldRaw, Page pg, long uid, DataManagerImpl dm) {
+    public DataItemImpl(SubArray raw, Page pg, long uid, DataManagerImpl dm) {
         this.raw = raw;
-        this.oldRaw = oldRaw;
         ReadWriteLock lock = new ReentrantReadWriteLock();
         rLock = lock.readLock();
         wLock = lock.writeLock();
@@ -61,13 +61,16 @@ public class DataItemImpl implements DataItem {
     public void before() {
         wLock.lock();
         pg.setDirty(true);
-        System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
+        int length = raw.end - raw.start;
+        oldRaw = dm.takeOldRaw(length);
+        System.arraycopy(raw.raw, raw.start, oldRaw, 0, length);
     }
 
     // me:撤销修改,把老数据给当前的数据
     @Override
     public void unBefore() {
-        System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
+        System.arraycopy(oldRaw, 0, raw.raw, raw.start, raw.end - raw.start);
+        giveBackOldRaw();
         wLock.unlock();
     }
 
@@ -76,9 +79,15 @@ public class DataItemImpl implements DataItem {
     @Override
     public void after(long xid) {
         dm.logDataItem(xid, this);
+        giveBackOldRaw();
         wLock.unlock();
     }
 
+    private void giveBackOldRaw() {
+        dm.giveOldRaw(oldRaw);
+        oldRaw = null;
+    }
+
     // 在使用完 DataItem 后，也应当及时调用 release() 方法，释放掉 DataItem 的缓存（由 DM 缓存 DataItem）。
     @Override
     public void release() {
@@ -1,76 +1,92 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import top.guoziyang.mydb.backend.utils.Panic;
-import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.common.Error;
 
 public interface Logger {
-    void log(byte[] data);
+    // 默认的日志段大小
+    int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    // 日志段大小的下限
+    int MIN_SEGMENT_SIZE = 1 << 20;
+
+    // 返回这条日志的 LSN
+    long log(byte[] data);
+    // 一次写入多条日志，只 fsync 一次
+    void log(List<byte[]> data);
     void truncate(long x) throws Exception;
     byte[] next();
     void rewind();
     void close();
 
+    // 下一条日志将使用的 LSN
+    long end();
+    // 从 lsn 处开始读日志
+    void seek(long lsn);
+    // 上一次 next() 返回的日志的 LSN
+    long lastLsn();
+    // 读 lsn 处的一条日志，不影响 next() 的位置，日志不存在或已损坏时返回 null
+    byte[] read(long lsn);
+    // lsn 之前的日志不再需要，回收整段都在 lsn 之前的日志段
+    void recycle(long lsn);
+
     public static Logger create(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
-        try {
-            if(!f.createNewFile()) {
-                Panic.panic(Error.FileExistsException);
-            }
-        } catch (Exception e) {
-            Panic.panic(e);
+        return create(path, 0, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static Logger create(String path, long groupWindowMicros) {
+        return create(path, groupWindowMicros, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param groupWindowMicros 组提交时 leader 写盘前等待其他日志加入的时间（微秒），0 表示不等待
+     * @param segmentSize 日志段的大小（字节），创建后不能修改
+     */
+    public static Logger create(String path, long groupWindowMicros, int segmentSize) {
+        if(segmentSize < MIN_SEGMENT_SIZE) {
+            Panic.panic(Error.InvalidLogSegmentSizeException);
         }
+        // 留下的任何一个日志段都会在打开时被接上，新建时一个都不能有
+        if(!LoggerImpl.logFiles(path).isEmpty()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        File f = LoggerImpl.segmentFile(path, 0);
+        FileChannel fc = LoggerImpl.openChannel(f, true);
         if(!f.canRead() || !f.canWrite()) {
             Panic.panic(Error.FileCannotRWException);
         }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
+        ByteBuffer buf = ByteBuffer.wrap(LoggerImpl.segmentHeader(0, segmentSize));
         try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
-        }
-
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
-        try {
-            fc.position(0);
-            fc.write(buf);
+            while(buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
             fc.force(false);
+            fc.close();
         } catch (IOException e) {
             Panic.panic(e);
         }
 
-        return new LoggerImpl(raf, fc, 0);
+        return open(path, groupWindowMicros);
     }
 
     public static Logger open(String path) {
-        File f = new File(path+LoggerImpl.LOG_SUFFIX);
-        if(!f.exists()) {
-            Panic.panic(Error.FileNotExistsException);
-        }
-        if(!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
+        return open(path, 0);
+    }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (FileNotFoundException e) {
-           Panic.panic(e);
+    public static Logger open(String path, long groupWindowMicros) {
+        File f = LoggerImpl.segmentFile(path, 0);
+        if(f.exists() && (!f.canRead() || !f.canWrite())) {
+            Panic.panic(Error.FileCannotRWException);
         }
 
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+        LoggerImpl lg = new LoggerImpl(path, TimeUnit.MICROSECONDS.toNanos(groupWindowMicros));
         lg.init();
 
         return lg;
@@ -1,12 +1,22 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 import com.google.common.primitives.Bytes;
 
@@ -16,24 +26,35 @@ import top.guoziyang.mydb.common.Error;
 
 /**
  * 日志文件读写
- * 
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的Checksum，int类型
- * 其中 XChecksum 是一个四字节的整数，是对后续所有日志计算的校验和。
- * Log1 ~ LogN 是常规的日志数据，
- * BadTail 是在数据库崩溃时，没有来得及写完的日志数据，这个 BadTail 不一定存在。
- * 
+ *
+ * 日志由若干个固定大小的段组成，段 0 为 path.log，段 n 为 path.log.n，每段的格式为：
+ * [SegHeader] [Log1] [Log2] ... [LogN] [BadTail]
+ * SegHeader: [Magic 4字节] [SegNo 8字节] [SegSize 4字节]
+ * Magic 是四字节的格式标识，用来区分旧格式（开头是整个文件的 XChecksum）的日志文件。
+ * Log1 ~ LogN 是常规的日志数据，一条日志不会跨段，当前段放不下时从下一段开头写。
+ * BadTail 是在数据库崩溃时，没有来得及写完的日志数据，这个 BadTail 不一定存在，只可能在最后一段。
+ *
  * 每条正确日志的格式为：
  * [Size] [Checksum] [Data]
  * Size 4字节int 标识Data长度
- * Checksum 4字节int
+ * Checksum 4字节int，是 Size 和 Data 的 CRC32C
  * 其中，Size 是一个四字节整数，标识了 Data 段的字节数。Checksum 则是该条日志的校验和。
+ *
+ * 每条日志自带校验和，不再维护整个文件的校验和：追加日志是纯顺序写，不用回到文件开头改写；
+ * 打开日志也不用扫描整个文件。崩溃后恢复时会读一遍日志，读到第一条不完整或校验失败的日志，
+ * 它和之后的内容就是 BadTail，在那里截断。正常关闭的日志没有 BadTail。
+ *
+ * 日志的位置用 LSN 表示：段号 * 段大小 + 段内偏移，LSN 随写入单调增长。
+ * 检查点之前的段不再需要，由 recycle() 回收：改名为 path.log.free<k> 留作以后的新段，多余的删除。
+ * 换段时先把上一段 fsync，所以只要下一段存在，上一段就是完整的。
  */
 public class LoggerImpl implements Logger {
 
-    // me:种子,用来求校验和
-    private static final int SEED = 13331;
+    // 新格式日志文件开头的标识
+    static final int LOG_MAGIC = 0x4D44424C;
+    private static final int OF_SEG_NO = 4;
+    private static final int OF_SEG_SIZE = OF_SEG_NO + 8;
+    static final int SEG_HEADER_SIZE = OF_SEG_SIZE + 4;
 
     // me:应该是日志的起始地址
     private static final int OF_SIZE = 0;
@@ -43,186 +64,504 @@ public class LoggerImpl implements Logger {
     // me:第二个+4应该是每条日志有四字节的整数:Checksum
     // me:[Size][Checksum][Data],OF_SIZE是size的起始地址,_CHECKSUM是_CHECKSUM的起始地址,OF_DATA是OF_DATA的起始地址,
     private static final int OF_DATA = OF_CHECKSUM + 4;
-    
+
     public static final String LOG_SUFFIX = ".log";
+    private static final String FREE_SUFFIX = ".free";
+    // 最多保留的回收段数
+    private static final int MAX_FREE_SEGMENTS = 2;
 
-    private RandomAccessFile file;
-    private FileChannel fc;
+    private String path;
+    private int segmentSize;
+    // 保护段文件的读写和段的增减
     private Lock lock;
+    // 存活的段，段号 -> 文件
+    private TreeMap<Long, FileChannel> segments;
+    // 回收的段，换段时优先复用
+    private Deque<File> freeSegments;
+    private int freeCounter;
 
-    // 当前日志指针的位置
+    // 当前读日志的位置（LSN）
     // me:指向的是每条日志([Size][Checksum][Data])的初始位置,即[Size]的起始位置
     private long position;
-    // 初始化时记录，log操作不更新
-    // me:初始化时记录long文件的长度，之后在log操作时不更新fileSize
-    private long fileSize;
-    private int xChecksum;
-
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
+    // 上一次 next() 返回的日志的 LSN
+    private long lastLsn;
+
+    // 组提交的队列，由 queueLock 保护；lock 只保护文件的读写
+    private Lock queueLock;
+    private Condition groupFlushed;
+    // 只用于 leader 等待时间窗口，不会被唤醒
+    private Condition groupWindowWait;
+    private List<byte[]> pending;
+    private List<Long> pendingLsns;
+    // 下一条日志的 LSN，入队时分配
+    private long appendLsn;
+    // 已经进入队列、已经落盘的日志条数
+    private long appendSeq;
+    private long flushedSeq;
+    // 是否有线程正在作为 leader 写盘
+    private boolean leading;
+    // leader 写盘前等待的时间窗口（纳秒），0 表示不等待
+    private long groupWindow;
+
+    LoggerImpl(String path, long groupWindow) {
+        this.path = path;
+        this.groupWindow = groupWindow;
         lock = new ReentrantLock();
+        segments = new TreeMap<>();
+        freeSegments = new ArrayDeque<>();
+        queueLock = new ReentrantLock();
+        groupFlushed = queueLock.newCondition();
+        groupWindowWait = queueLock.newCondition();
+        pending = new ArrayList<>();
+        pendingLsns = new ArrayList<>();
     }
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc, int xChecksum) {
-        this.file = raf;
-        this.fc = fc;
-        this.xChecksum = xChecksum;
-        lock = new ReentrantLock();
+    static File segmentFile(String path, long segNo) {
+        return new File(path + LOG_SUFFIX + (segNo == 0 ? "" : "." + segNo));
+    }
+
+    static byte[] segmentHeader(long segNo, int segmentSize) {
+        return Bytes.concat(Parser.int2Byte(LOG_MAGIC), Parser.long2Byte(segNo), Parser.int2Byte(segmentSize));
+    }
+
+    // 属于 path 的日志的所有文件：各个日志段和留作以后新段的 path.log.free<k>
+    static List<File> logFiles(String path) {
+        File base = segmentFile(path, 0).getAbsoluteFile();
+        String name = base.getName();
+        File[] files = base.getParentFile().listFiles();
+        List<File> found = new ArrayList<>();
+        for(File f : files == null ? new File[0] : files) {
+            String n = f.getName();
+            if(n.equals(name) || n.startsWith(name + FREE_SUFFIX)
+                    || n.startsWith(name + ".") && parseNumber(n.substring(name.length() + 1)) > 0) {
+                found.add(f);
+            }
+        }
+        return found;
     }
 
+    // 打开时只检查各段的段头，不扫描日志，打开的开销和日志的长度无关
     void init() {
-        long size = 0;
+        String name = segmentFile(path, 0).getName();
+        TreeMap<Long, File> found = new TreeMap<>();
+        for(File f : logFiles(path)) {
+            String n = f.getName();
+            if(n.equals(name)) {
+                found.put(0L, f);
+            } else if(n.startsWith(name + FREE_SUFFIX)) {
+                freeSegments.add(f);
+                freeCounter = Math.max(freeCounter, parseNumber(n.substring(name.length() + FREE_SUFFIX.length())) + 1);
+            } else if(n.startsWith(name + ".") && parseNumber(n.substring(name.length() + 1)) > 0) {
+                found.put((long)parseNumber(n.substring(name.length() + 1)), f);
+            }
+        }
+        if(found.isEmpty()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        long expected = found.firstKey();
+        for(Map.Entry<Long, File> e : found.entrySet()) {
+            if(e.getKey() != expected) {
+                Panic.panic(Error.BadLogFileException);
+            }
+            expected ++;
+            FileChannel fc = openChannel(e.getValue(), false);
+            byte[] header = readHeader(fc);
+            boolean last = e.getKey().equals(found.lastKey());
+            if(header == null || Parser.parseLong(Arrays.copyOfRange(header, OF_SEG_NO, OF_SEG_SIZE)) != e.getKey()) {
+                // 换段时新建的段在写完段头之前崩溃，里面不会有日志，删掉即可
+                if(last && segments.size() > 0) {
+                    close(fc);
+                    e.getValue().delete();
+                    break;
+                }
+                Panic.panic(Error.BadLogFileException);
+            }
+            segmentSize = Parser.parseInt(Arrays.copyOfRange(header, OF_SEG_SIZE, SEG_HEADER_SIZE));
+            segments.put(e.getKey(), fc);
+        }
+        long last = segments.lastKey();
+        appendLsn = normalize(last * segmentSize + Math.max(SEG_HEADER_SIZE, size(segments.get(last))));
+        rewind();
+    }
+
+    // 每段开头是段头，日志从段头之后开始：正好落在段边界上的位置换成下一段段头之后
+    private long normalize(long lsn) {
+        return lsn % segmentSize == 0 ? lsn + SEG_HEADER_SIZE : lsn;
+    }
+
+    private static int parseNumber(String s) {
+        if(s.isEmpty() || s.length() > 9) {
+            return -1;
+        }
+        for(char c : s.toCharArray()) {
+            if(c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(s);
+    }
+
+    private static byte[] readHeader(FileChannel fc) {
+        ByteBuffer buf = ByteBuffer.allocate(SEG_HEADER_SIZE);
         try {
-            size = file.length();
-        } catch (IOException e) {
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, buf.position()) < 0) {
+                    return null;
+                }
+            }
+        } catch(IOException e) {
             Panic.panic(e);
         }
-        if(size < 4) {
-            // me:文件过小
-            Panic.panic(Error.BadLogFileException);
+        byte[] header = buf.array();
+        if(Parser.parseInt(Arrays.copyOfRange(header, 0, OF_SEG_NO)) != LOG_MAGIC) {
+            return null;
         }
+        return header;
+    }
 
-        ByteBuffer raw = ByteBuffer.allocate(4);
+    static FileChannel openChannel(File f, boolean create) {
         try {
-            fc.position(0);
-            fc.read(raw);
-        } catch (IOException e) {
+            if(create) {
+                return FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            }
+            return FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch(IOException e) {
             Panic.panic(e);
         }
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        // 一个四字节的整数，是对后续所有日志计算的校验和。
-        this.xChecksum = xChecksum;
+        return null;
+    }
 
-        checkAndRemoveTail();
+    // 单条日志的校验和：Size 和 Data 的 CRC32C，JDK 会用 CPU 的 CRC32 指令计算
+    private static int calChecksum(byte[] log, int dataLen) {
+        CRC32C crc = new CRC32C();
+        crc.update(log, OF_SIZE, OF_CHECKSUM - OF_SIZE);
+        crc.update(log, OF_DATA, dataLen);
+        return (int)crc.getValue();
     }
-    // 在打开一个日志文件时，需要首先校验日志文件的 XChecksum，并移除文件尾部可能存在的 BadTail，
-    // 由于 BadTail 该条日志尚未写入完成，文件的校验和也就不会包含该日志的校验和，去掉 BadTail 即可保证日志文件的一致性。
-    // 检查并移除bad tail
-    private void checkAndRemoveTail() {
-        rewind();
 
-        int xCheck = 0;
-        while(true) {
-            // me:log为实际的日志内容
-            byte[] log = internNext();
-            if(log == null) break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if(xCheck != xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+    // 向日志文件写入日志时，也是首先将数据包裹成日志格式，写入文件后 fsync，保证内容写入磁盘。
+    @Override
+    public long log(byte[] data) {
+        return enqueue(Collections.singletonList(data));
+    }
+
+    @Override
+    public void log(List<byte[]> data) {
+        if(data.isEmpty()) {
+            return;
         }
+        enqueue(data);
+    }
 
-        // 截断文件到正常日志的末尾
-        try {
-            truncate(position);
-        } catch (Exception e) {
-            Panic.panic(e);
+    // 组提交：日志先放入共享的队列，由一个线程（leader）把队列中的日志一次写入并 fsync，
+    // 其余线程（follower）等这一批落盘后一起返回。leader 写盘期间新来的日志排队等下一批，
+    // 并发写日志的线程越多，每次 fsync 平均带走的日志越多。
+    // 日志的 LSN 在入队时按顺序分配，返回第一条日志的 LSN
+    private long enqueue(List<byte[]> data) {
+        byte[][] logs = new byte[data.size()][];
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = wrapLog(data.get(i));
+            if(logs[i].length > segmentSize - SEG_HEADER_SIZE) {
+                Panic.panic(Error.DataTooLargeException);
+            }
         }
+        queueLock.lock();
         try {
-            file.seek(position);
-        } catch (IOException e) {
-            Panic.panic(e);
+            long first = -1;
+            for (byte[] log : logs) {
+                // 当前段放不下，从下一段开头写
+                if(appendLsn % segmentSize + log.length > segmentSize) {
+                    appendLsn = (appendLsn / segmentSize + 1) * segmentSize + SEG_HEADER_SIZE;
+                }
+                // 上一条日志正好写满上一段时 appendLsn 在段边界上，不能覆盖段头
+                appendLsn = normalize(appendLsn);
+                if(first < 0) {
+                    first = appendLsn;
+                }
+                pending.add(log);
+                pendingLsns.add(appendLsn);
+                appendLsn += log.length;
+            }
+            appendSeq += logs.length;
+            long seq = appendSeq;
+            while(flushedSeq < seq) {
+                if(leading) {
+                    groupFlushed.awaitUninterruptibly();
+                    continue;
+                }
+                leading = true;
+                try {
+                    flushGroup();
+                } finally {
+                    leading = false;
+                    groupFlushed.signalAll();
+                }
+            }
+            return first;
+        } finally {
+            queueLock.unlock();
         }
-        rewind();
     }
 
-    // 单条日志的校验和，其实就是通过一个指定的种子实现的：
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    // 持有 queueLock 时调用，写盘期间释放 queueLock，其他线程可以继续排队
+    private void flushGroup() {
+        // 先等待一个时间窗口，让更多的日志加入这一批，日志提交的延迟最多增加一个窗口
+        long nanos = groupWindow;
+        while(nanos > 0) {
+            try {
+                nanos = groupWindowWait.awaitNanos(nanos);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
-        return xCheck;
+        List<byte[]> batch = pending;
+        List<Long> lsns = pendingLsns;
+        pending = new ArrayList<>();
+        pendingLsns = new ArrayList<>();
+        long end = appendSeq;
+        queueLock.unlock();
+        try {
+            write(batch, lsns);
+        } finally {
+            queueLock.lock();
+        }
+        flushedSeq = end;
     }
 
-    // 向日志文件写入日志时，也是首先将数据包裹成日志格式，写入文件后，
-    // 再更新文件的校验和，更新校验和时，会刷新缓冲区，保证内容写入磁盘。
-    @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+    // 一批日志按段拼成顺序 write，换段前先把上一段 fsync，最后 fsync 一次
+    private void write(List<byte[]> logs, List<Long> lsns) {
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
+            int i = 0;
+            while(i < logs.size()) {
+                long seg = lsns.get(i) / segmentSize;
+                int j = i;
+                while(j < logs.size() && lsns.get(j) / segmentSize == seg) {
+                    j ++;
+                }
+                FileChannel fc = segmentForAppend(seg);
+                ByteBuffer buf = ByteBuffer.wrap(Bytes.concat(logs.subList(i, j).toArray(new byte[0][])));
+                long pos = lsns.get(i) % segmentSize;
+                // 日志的位置都经过 normalize()，不会落在段头里
+                if(pos < SEG_HEADER_SIZE) {
+                    Panic.panic(Error.BadLogFileException);
+                }
+                while(buf.hasRemaining()) {
+                    pos += fc.write(buf, pos);
+                }
+                i = j;
+            }
+            segments.lastEntry().getValue().force(false);
         } catch(IOException e) {
             Panic.panic(e);
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
     }
 
-    private void updateXChecksum(byte[] log) {
-        // me:基于原先的校验和this.xChecksum和当前的日志log得到新的this.xChecksum
-        this.xChecksum = calChecksum(this.xChecksum, log);
-        try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
-            fc.force(false);
-        } catch(IOException e) {
-            Panic.panic(e);
+    // 取要追加的段，需要时换段：上一段落盘之后，用回收的段或新建文件写好段头再加入
+    private FileChannel segmentForAppend(long seg) throws IOException {
+        long last = segments.lastKey();
+        if(seg == last) {
+            return segments.get(seg);
         }
+        segments.get(last).force(false);
+        File target = segmentFile(path, seg);
+        File free = freeSegments.poll();
+        FileChannel fc;
+        if(free != null) {
+            // 回收的段先截断、写好段头再改名，崩溃时不会留下段头不对的段
+            fc = openChannel(free, false);
+            fc.truncate(0);
+            writeHeader(fc, seg);
+            if(!free.renameTo(target)) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+        } else {
+            fc = openChannel(target, true);
+            writeHeader(fc, seg);
+        }
+        segments.put(seg, fc);
+        return fc;
+    }
+
+    private void writeHeader(FileChannel fc, long seg) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(segmentHeader(seg, segmentSize));
+        while(buf.hasRemaining()) {
+            fc.write(buf, buf.position());
+        }
+        fc.force(false);
     }
 
     private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
         // me:构造出格式:[Size][Checksum][Data]
-        return Bytes.concat(size, checksum, data);
+        byte[] log = new byte[OF_DATA + data.length];
+        System.arraycopy(Parser.int2Byte(data.length), 0, log, OF_SIZE, 4);
+        System.arraycopy(data, 0, log, OF_DATA, data.length);
+        System.arraycopy(Parser.int2Byte(calChecksum(log, data.length)), 0, log, OF_CHECKSUM, 4);
+        return log;
+    }
+
+    @Override
+    public long end() {
+        queueLock.lock();
+        try {
+            return appendLsn;
+        } finally {
+            queueLock.unlock();
+        }
     }
 
+    /**
+     * 回收 lsn 之前的段（整段都在 lsn 之前，并且不是最后一段）
+     * 最多保留 MAX_FREE_SEGMENTS 个改名留作以后的新段，其余删除
+     */
     @Override
-    public void truncate(long x) throws Exception {
+    public void recycle(long lsn) {
         lock.lock();
         try {
-            fc.truncate(x);
+            while(segments.size() > 1) {
+                long seg = segments.firstKey();
+                if((seg + 1) * segmentSize > lsn) {
+                    break;
+                }
+                close(segments.remove(seg));
+                File f = segmentFile(path, seg);
+                if(freeSegments.size() < MAX_FREE_SEGMENTS) {
+                    File free = new File(f.getAbsoluteFile().getParentFile(),
+                            segmentFile(path, 0).getName() + FREE_SUFFIX + (freeCounter++));
+                    if(f.renameTo(free)) {
+                        freeSegments.add(free);
+                        continue;
+                    }
+                }
+                f.delete();
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    // 截断 lsn 之后的日志
+    @Override
+    public void truncate(long lsn) throws Exception {
+        queueLock.lock();
+        lock.lock();
+        try {
+            long seg = lsn / segmentSize;
+            while(segments.lastKey() > seg) {
+                long last = segments.lastKey();
+                close(segments.remove(last));
+                segmentFile(path, last).delete();
+            }
+            FileChannel fc = segments.get(seg);
+            if(fc != null) {
+                fc.truncate(lsn % segmentSize);
+                fc.force(false);
+                appendLsn = normalize(lsn);
+            }
+        } finally {
+            lock.unlock();
+            queueLock.unlock();
+        }
+    }
+
     private byte[] internNext() {
-        if(position + OF_DATA >= fileSize) {
+        while(true) {
+            position = normalize(position);
+            long seg = position / segmentSize;
+            FileChannel fc = segments.get(seg);
+            if(fc == null) {
+                return null;
+            }
+            byte[] log = readLog(fc, position % segmentSize);
+            if(log != null) {
+                lastLsn = position;
+                // me:更新位置,指向下一条日志的开始
+                position += log.length;
+                return log;
+            }
+            if(seg == segments.lastKey()) {
+                return null;
+            }
+            // 下一段存在，这一段已经读完
+            position = (seg + 1) * segmentSize + SEG_HEADER_SIZE;
+        }
+    }
+
+    private byte[] readLog(FileChannel fc, long offset) {
+        long fileSize = size(fc);
+        if(offset + OF_DATA > fileSize) {
             return null;
         }
         ByteBuffer tmp = ByteBuffer.allocate(4);
         try {
-            fc.position(position);
-            fc.read(tmp);
+            fc.read(tmp, offset);
         } catch(IOException e) {
             Panic.panic(e);
         }
         // me:获得了{[Size][Checksum][Data]}中的Data段的字节数?
         int size = Parser.parseInt(tmp.array());
-        if(position + size + OF_DATA > fileSize) {
+        if(size < 0 || offset + size + OF_DATA > fileSize) {
             return null;
         }
 
         // 读取 checksum+data
         ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
         try {
-            fc.position(position);
-            fc.read(buf);
+            while(buf.hasRemaining()) {
+                fc.read(buf, offset + buf.position());
+            }
         } catch(IOException e) {
             Panic.panic(e);
         }
 
         // 校验 checksum
         byte[] log = buf.array();
-        // me:根据每条日志的的内容(OF_DATA, log.length)获得校验和
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
+        int checkSum1 = calChecksum(log, size);
         // me:每条日志的checksum
         int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
         if(checkSum1 != checkSum2) {
             return null;
         }
-        // me:更新位置,指向下一条日志的开始
-        position += log.length;
         return log;
     }
 
+    // 读到第一条坏日志，它和之后的内容都是崩溃时没写完的 BadTail，截断掉，之后的日志接着正常日志的末尾写
+    private void removeBadTail() {
+        long seg = position / segmentSize;
+        if(seg != segments.lastKey()) {
+            return;
+        }
+        FileChannel fc = segments.get(seg);
+        long offset = position % segmentSize;
+        if(offset >= size(fc)) {
+            return;
+        }
+        try {
+            fc.truncate(offset);
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        queueLock.lock();
+        try {
+            appendLsn = normalize(position);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    private static long size(FileChannel fc) {
+        try {
+            return fc.size();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
     // Logger 被实现成迭代器模式，通过 next() 方法，不断地从文件中读取下一条日志，并将其中的 Data 解析出来并返回。
     // next() 方法的实现主要依靠 internNext()，大致如下，其中 position 是当前日志文件读到的位置偏移：
     @Override
@@ -230,27 +569,82 @@ public class LoggerImpl implements Logger {
         lock.lock();
         try {
             byte[] log = internNext();
-            if(log == null) return null;
+            if(log == null) {
+                removeBadTail();
+                return null;
+            }
             return Arrays.copyOfRange(log, OF_DATA, log.length);
         } finally {
             lock.unlock();
         }
     }
 
-    // me:重置偏移位置
+    // me:重置偏移位置，回到最早的一段的开头
     @Override
     public void rewind() {
-        position = 4;
+        lock.lock();
+        try {
+            position = segments.firstKey() * segmentSize + SEG_HEADER_SIZE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void seek(long lsn) {
+        lock.lock();
+        try {
+            position = normalize(lsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long lastLsn() {
+        lock.lock();
+        try {
+            return lastLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 按 LSN 读一条日志，不移动 next() 的位置。文件是按位置读的，多个线程可以同时读
+    @Override
+    public byte[] read(long lsn) {
+        FileChannel fc;
+        lock.lock();
+        try {
+            fc = segments.get(lsn / segmentSize);
+        } finally {
+            lock.unlock();
+        }
+        byte[] log = fc == null ? null : readLog(fc, lsn % segmentSize);
+        if(log == null) {
+            return null;
+        }
+        return Arrays.copyOfRange(log, OF_DATA, log.length);
     }
 
     @Override
     public void close() {
+        lock.lock();
+        try {
+            for(FileChannel fc : segments.values()) {
+                close(fc);
+            }
+            segments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void close(FileChannel fc) {
         try {
             fc.close();
-            file.close();
         } catch(IOException e) {
             Panic.panic(e);
         }
     }
-    
 }
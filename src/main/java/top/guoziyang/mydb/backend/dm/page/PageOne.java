@@ -2,8 +2,10 @@ package top.guoziyang.mydb.backend.dm.page;
 
 import java.util.Arrays;
 
-import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
+import top.guoziyang.mydb.common.Error;
 
 // 数据库文件的第一页，通常用作一些特殊用途，比如存储一些元数据，用来启动检查什么的。
 // MYDB 的第一页，只是用来做启动检查。
@@ -12,22 +14,60 @@ import top.guoziyang.mydb.backend.utils.RandomUtil;
 // 这样数据库在每次启动时，就会检查第一页两处的字节是否相同，以此来判断上一次是否正常关闭。
 // 如果是异常关闭，就需要执行数据的恢复流程。
 
+// 第一页的开头还记录了数据库的页面大小。打开数据库时还不知道页面大小，
+// 先从文件开头读出这几个字节，再按它打开 PageCache。
+
 /**
  * 特殊管理第一页
+ * PageSize
+ * 0~3字节为页面大小，创建数据库时写入，之后不再改变。
+ * 旧版本创建的数据库这里为 0，它的普通页不是槽页格式，无法读取，打开时直接拒绝
+ * Flags
+ * 4字节为标志位，目前只有 FLAG_COMPRESSED：其余页面是否压缩存储，同样在创建时决定
  * ValidCheck
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
+ * Checkpoint
+ * 116~123字节为最近一次检查点日志的 LSN，0 表示还没有做过检查点，恢复时从这里开始读日志
  */
 public class PageOne {
+    private static final int OF_PAGE_SIZE = 0;
+    private static final int OF_FLAGS = OF_PAGE_SIZE + 4;
+    // 打开时需要先读出的头部长度
+    public static final int HEADER_SIZE = OF_FLAGS + 1;
+    private static final byte FLAG_COMPRESSED = 1;
     private static final int OF_VC = 100;
     private static final int LEN_VC = 8;
+    private static final int OF_CHECKPOINT = OF_VC + 2*LEN_VC;
+
+    public static byte[] InitRaw(int pageSize) {
+        return InitRaw(pageSize, false);
+    }
 
-    public static byte[] InitRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    public static byte[] InitRaw(int pageSize, boolean compressed) {
+        byte[] raw = new byte[pageSize];
+        System.arraycopy(Parser.int2Byte(pageSize), 0, raw, OF_PAGE_SIZE, 4);
+        if(compressed) {
+            raw[OF_FLAGS] |= FLAG_COMPRESSED;
+        }
         setVcOpen(raw);
         return raw;
     }
 
+    // 从第一页的头部解析页面大小
+    public static int getPageSize(byte[] header) {
+        int pageSize = Parser.parseInt(Arrays.copyOfRange(header, OF_PAGE_SIZE, OF_PAGE_SIZE+4));
+        if(pageSize == 0) {
+            Panic.panic(Error.UnsupportedDatabaseException);
+        }
+        return pageSize;
+    }
+
+    // 从第一页的头部解析其余页面是否压缩存储
+    public static boolean isCompressed(byte[] header) {
+        return (header[OF_FLAGS] & FLAG_COMPRESSED) != 0;
+    }
+
     // 启动时设置初始字节:
     public static void setVcOpen(Page pg) {
         pg.setDirty(true);
@@ -56,4 +96,14 @@ public class PageOne {
     private static boolean checkVc(byte[] raw) {
         return Arrays.equals(Arrays.copyOfRange(raw, OF_VC, OF_VC+LEN_VC), Arrays.copyOfRange(raw, OF_VC+LEN_VC, OF_VC+2*LEN_VC));
     }
+
+    // 记录最近一次检查点日志的位置
+    public static void setCheckpoint(Page pg, long lsn) {
+        pg.setDirty(true);
+        System.arraycopy(Parser.long2Byte(lsn), 0, pg.getData(), OF_CHECKPOINT, 8);
+    }
+
+    public static long getCheckpoint(Page pg) {
+        return Parser.parseLong(Arrays.copyOfRange(pg.getData(), OF_CHECKPOINT, OF_CHECKPOINT+8));
+    }
 }
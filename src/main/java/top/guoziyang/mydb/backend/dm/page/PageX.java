@@ -1,8 +1,6 @@
 package top.guoziyang.mydb.backend.dm.page;
 
-import java.util.Arrays;
-
-import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.utils.Parser;
 
 // MYDB 对于普通数据页的管理就比较简单了。
@@ -11,28 +9,55 @@ import top.guoziyang.mydb.backend.utils.Parser;
 // 所以对普通页的管理，基本都是围绕着对 FSO（Free Space Offset）进行的。
 // me:FSO就空闲位置的起始地址
 
+// 普通页是一个槽页（slotted page）：数据从页头往后追加，槽目录从页尾往前增长。
+// 上层拿到的地址是槽号而不是页内偏移，所以页内的数据可以整理（压缩）而地址不变。
+// 无效的 DataItem 占用的空间在整理时回收，空出的槽可以复用，复用时槽的版本号加一，
+// 指向旧版本的地址（例如索引中残留的 uid）读到的就是一个无效的 DataItem，而不会读到新数据。
+// 版本号只有 16 位，用到 MAX_GEN 的槽不再复用；槽也不会从目录中去掉，否则新建的同号槽又从 0 开始。
+
 /**
  * PageX管理普通页
  * 普通页结构
- * [FreeSpaceOffset] [Data]
+ * [FreeSpaceOffset] [SlotCount] [Data] ... [Slot(n-1)] ... [Slot1] [Slot0]
  * FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * SlotCount: 2字节 槽的个数
+ * Slot: [Offset 2字节] [Generation 2字节]，Offset 为 0 表示空槽
+ *
+ * 槽引用 slotRef = [Generation 16位][Slot 16位]，作为 uid 的低 32 位
  */
 public class PageX {
 
     private static final short OF_FREE = 0;
-    private static final short OF_DATA = 2;
-    // me:实际上最大的可存放的空闲空间,PageCache.PAGE_SIZE - OF_DATA=8K-2
-    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
+    private static final short OF_SLOTS = 2;
+    private static final short OF_DATA = 4;
+    public static final int SLOT_SIZE = 4;
+    // 槽的最大版本号。一个槽最多被复用 65535 次，版本号到达 MAX_GEN 后槽作废，不会回绕到 0
+    public static final int MAX_GEN = 0xFFFF;
+
+    // me:实际上最大的可存放的空闲空间,页面大小 - OF_DATA - 一个槽
+    public static int maxFreeSpace(int pageSize) {
+        return pageSize - OF_DATA - SLOT_SIZE;
+    }
 
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    public static byte[] initRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
         setFSO(raw, OF_DATA);
         return raw;
     }
 
     // me:将ofData作为长度2的数组写到raw中OF_FREE~OF_DATA的范围中
     private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, 2);
+    }
+
+    // 预分配空间中的页面在写入之前全为 0，崩溃后可能以这种状态留在文件中，
+    // 恢复重做、撤销之前和重建 PageIndex 时把它当作空页面重新初始化
+    public static void initIfBlank(Page pg) {
+        if(getFSO(pg) == 0) {
+            pg.setDirty(true);
+            setFSO(pg.getData(), OF_DATA);
+            setSlotCount(pg.getData(), 0);
+        }
     }
 
     // 获取pg的FSO
@@ -42,47 +67,191 @@ public class PageX {
 
     // me:获取FSO,即获取空闲位置的起始地址(而这个数据记录在页面中的前2个字节)
     private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+        return readShort(raw, OF_FREE);
+    }
+
+    private static int getSlotCount(byte[] raw) {
+        return readShort(raw, OF_SLOTS) & 0xFFFF;
+    }
+
+    private static void setSlotCount(byte[] raw, int count) {
+        writeShort(raw, OF_SLOTS, count);
+    }
+
+    // 槽目录从页尾往前增长，页面大小就是页面数组的长度
+    private static int slotPos(byte[] raw, int slot) {
+        return raw.length - (slot + 1) * SLOT_SIZE;
+    }
+
+    private static int slotOffset(byte[] raw, int slot) {
+        return readShort(raw, slotPos(raw, slot)) & 0xFFFF;
+    }
+
+    private static int slotGen(byte[] raw, int slot) {
+        return readShort(raw, slotPos(raw, slot) + 2) & 0xFFFF;
+    }
+
+    private static void setSlot(byte[] raw, int slot, int offset, int gen) {
+        writeShort(raw, slotPos(raw, slot), offset);
+        writeShort(raw, slotPos(raw, slot) + 2, gen);
+    }
+
+    public static int slotRef(int slot, int gen) {
+        return (gen & 0xFFFF) << 16 | (slot & 0xFFFF);
+    }
+
+    /**
+     * 槽引用对应的 DataItem 在页内的偏移，槽不存在、是空槽或版本不一致时返回 0
+     */
+    public static int getOffset(Page pg, int slotRef) {
+        byte[] raw = pg.getData();
+        int slot = slotRef & 0xFFFF;
+        if(slot >= getSlotCount(raw) || slotGen(raw, slot) != slotRef >>> 16) {
+            return 0;
+        }
+        return slotOffset(raw, slot);
     }
 
     // 向页面插入数据：
-    // 将raw插入pg中，返回插入位置
-    public static short insert(Page pg, byte[] raw) {
+    // 将raw插入pg中，返回槽引用。调用方保证 getUsableSpace(pg) >= raw.length
+    public static int insert(Page pg, byte[] raw) {
         pg.setDirty(true);
-        short offset = getFSO(pg.getData());
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-        setFSO(pg.getData(), (short) (offset + raw.length));
-        return offset;
+        byte[] data = pg.getData();
+        int slot = freeSlot(data);
+        int count = getSlotCount(data);
+        int gen = 0;
+        if(slot < count) {
+            gen = slotGen(data, slot) + 1;
+        } else {
+            setSlotCount(data, count + 1);
+        }
+        short offset = getFSO(data);
+        System.arraycopy(raw, 0, data, offset, raw.length);
+        setFSO(data, (short) (offset + raw.length));
+        setSlot(data, slot, offset, gen);
+        return slotRef(slot, gen);
+    }
+
+    // 第一个可以复用的空槽，没有时返回槽的个数（即需要新建的槽号）
+    private static int freeSlot(byte[] data) {
+        int count = getSlotCount(data);
+        for(int i = 0; i < count; i ++) {
+            if(slotOffset(data, i) == 0 && slotGen(data, i) < MAX_GEN) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    // 不整理页面时，下一次插入最多能放下的字节数
+    public static int getUsableSpace(Page pg) {
+        byte[] data = pg.getData();
+        int count = getSlotCount(data);
+        int contiguous = slotPos(data, count - 1) - getFSO(data);
+        if(freeSlot(data) == count) {
+            contiguous -= SLOT_SIZE;
+        }
+        return Math.max(0, contiguous);
     }
 
     // 获取页面的空闲空间大小
-    // me:页面大小8K-页面前2个字节中记录的空闲空间的开始地址
+    // 包括无效 DataItem 占用的、整理之后可以回收的空间
     public static int getFreeSpace(Page pg) {
-        return PageCache.PAGE_SIZE - (int) getFSO(pg.getData());
+        byte[] data = pg.getData();
+        int count = getSlotCount(data);
+        int live = 0;
+        boolean hasFreeSlot = false;
+        for(int i = 0; i < count; i ++) {
+            int offset = slotOffset(data, i);
+            if(offset != 0 && DataItem.isRawValid(data, offset)) {
+                live += DataItem.rawLength(data, offset);
+            } else if(slotGen(data, i) < MAX_GEN) {
+                hasFreeSlot = true;
+            }
+        }
+        int free = slotPos(data, count - 1) - OF_DATA - live;
+        if(!hasFreeSlot) {
+            free -= SLOT_SIZE;
+        }
+        return Math.max(0, free);
+    }
+
+    /**
+     * 整理页面：有效的 DataItem 按槽号顺序紧凑地排到页头之后，无效的 DataItem 丢弃、槽置空（版本号保留）
+     * 尾部的空槽也保留，去掉之后再新建的槽版本号从 0 开始，会和残留的旧槽引用相同
+     * 会移动页内数据，调用方必须保证没有其他人持有这一页上的 DataItem
+     */
+    public static void compact(Page pg) {
+        pg.setDirty(true);
+        byte[] data = pg.getData();
+        byte[] old = data.clone();
+        int count = getSlotCount(data);
+        int fso = OF_DATA;
+        for(int i = 0; i < count; i ++) {
+            int offset = slotOffset(old, i);
+            if(offset == 0) {
+                continue;
+            }
+            if(!DataItem.isRawValid(old, offset)) {
+                setSlot(data, i, 0, slotGen(old, i));
+                continue;
+            }
+            int length = DataItem.rawLength(old, offset);
+            System.arraycopy(old, offset, data, fso, length);
+            setSlot(data, i, fso, slotGen(old, i));
+            fso += length;
+        }
+        setFSO(data, (short) fso);
     }
 
     // 剩余两个函数 recoverInsert() 和 recoverUpdate() 用于在数据库崩溃后重新打开时，恢复例程直接插入数据以及修改数据使用。
-    // 将raw插入pg中的offset位置，并将pg的offset设置为较大的offset
-    // me:对于页面Page,要放入数据raw,并取输入max(pg前2个字节记录的offset,输入参数offset+输入参数raw.length)来作为实际的偏移量
-    // me:如果输入参数offset+输入参数raw.length<pg前2个字节记录的offset,其实就说明了这块数据raw是往页面page的中间插入的
-    public static void recoverInsert(Page pg, byte[] raw, short offset) {
+    // 将raw放到槽引用指向的槽中：槽中已经是同一版本、同样长度的 DataItem 时原地覆盖，否则重新分配空间
+    // 槽目录不够长时补上空槽
+    public static void recoverInsert(Page pg, byte[] raw, int slotRef) {
         // me:设置为脏数据
         pg.setDirty(true);
-        // me:根据偏移量offset把数据raw插入到页面数据pg.getData()
-        System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
-
-        // me:更新偏移量offset
-        short rawFSO = getFSO(pg.getData());
-        if (rawFSO < offset + raw.length) {
-            // me:如果输入参数offset+输入参数raw.length>pg前2个字节记录的offset,就更新pg前2个字节记录的offset
-            setFSO(pg.getData(), (short) (offset + raw.length));
+        byte[] data = pg.getData();
+        int slot = slotRef & 0xFFFF;
+        int gen = slotRef >>> 16;
+        int count = getSlotCount(data);
+        if(slot >= count) {
+            for(int i = count; i <= slot; i ++) {
+                setSlot(data, i, 0, 0);
+            }
+            setSlotCount(data, slot + 1);
+        }
+        int offset = slotOffset(data, slot);
+        if(offset != 0 && slotGen(data, slot) == gen && DataItem.rawLength(data, offset) == raw.length) {
+            System.arraycopy(raw, 0, data, offset, raw.length);
+            return;
+        }
+        setSlot(data, slot, 0, gen);
+        if(slotPos(data, getSlotCount(data) - 1) - getFSO(data) < raw.length) {
+            compact(pg);
         }
+        short fso = getFSO(data);
+        System.arraycopy(raw, 0, data, fso, raw.length);
+        setFSO(data, (short) (fso + raw.length));
+        setSlot(data, slot, fso, gen);
     }
 
-    // me:暂时不知道作用在哪,为什么不用更新偏移量offset,只是恢复更新,没有新的数据插入,所以头部前2个字节的偏移量offset不用更新
-    // 将raw插入pg中的offset位置,不更新update
-    public static void recoverUpdate(Page pg, byte[] raw, short offset) {
+    // 原地覆盖槽引用指向的 DataItem。槽已经不是这一版本（被整理回收或复用）时跳过，
+    // 这时槽中的内容会由日志中后面的插入恢复
+    public static void recoverUpdate(Page pg, byte[] raw, int slotRef) {
+        int offset = getOffset(pg, slotRef);
+        if(offset == 0 || DataItem.rawLength(pg.getData(), offset) != raw.length) {
+            return;
+        }
         pg.setDirty(true);
         System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
     }
+
+    private static short readShort(byte[] raw, int pos) {
+        return (short)((raw[pos] & 0xFF) << 8 | (raw[pos + 1] & 0xFF));
+    }
+
+    private static void writeShort(byte[] raw, int pos, int v) {
+        raw[pos] = (byte)(v >>> 8);
+        raw[pos + 1] = (byte)v;
+    }
 }
@@ -0,0 +1,112 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+
+/**
+ * 通过 FileChannel 带位置的读写（pread/pwrite）访问数据文件
+ * 不修改 channel 的 position，不同页面的读写可以并发进行，不需要加锁
+ */
+public class ChannelPageFile implements PageFile {
+
+    // 扩展文件时每次写入的 0 的字节数
+    private static final int EXTEND_CHUNK = 1 << 20;
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private int pageSize;
+
+    ChannelPageFile(RandomAccessFile file, FileChannel fc, int pageSize) {
+        this.file = file;
+        this.fc = fc;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void read(int pgno, byte[] buf) {
+        long offset = PageCacheImpl.pageOffset(pgno, pageSize);
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        try {
+            while(bb.hasRemaining()) {
+                if(fc.read(bb, offset + bb.position()) < 0) {
+                    break;
+                }
+            }
+            // buf 可能是复用的页框，读不到的部分要清零
+            Arrays.fill(buf, bb.position(), buf.length, (byte)0);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void write(int pgno, byte[] buf) {
+        long offset = PageCacheImpl.pageOffset(pgno, pageSize);
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        try {
+            while(bb.hasRemaining()) {
+                fc.write(bb, offset + bb.position());
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void force() {
+        try {
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return fc.size();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void extend(long size) {
+        ByteBuffer zeros = ByteBuffer.allocate(EXTEND_CHUNK);
+        try {
+            long pos = fc.size();
+            while(pos < size) {
+                zeros.clear();
+                zeros.limit((int)Math.min(EXTEND_CHUNK, size - pos));
+                pos += fc.write(zeros, pos);
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        try {
+            file.setLength(size);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fc.close();
+            file.close();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
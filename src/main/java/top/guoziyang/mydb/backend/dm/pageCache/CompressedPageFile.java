@@ -0,0 +1,444 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 压缩存储的数据文件
+ * 第一页不压缩，原样放在数据文件的开头，打开数据库时直接从这里读出页面大小等信息。
+ * 其余页面写回时用 LZ4 压缩，存放在数据文件中按 SECTOR_SIZE 对齐的变长槽里，压不小的页面原样存放。
+ * 页面映射表（.pmt 文件）记录每一页所在的槽，文件中有两份映射表，轮流写入：
+ * [Header0 512字节] [Header1 512字节] [Block0 of Map0] [Block0 of Map1] [Block1 of Map0] ...
+ * Header: [Generation 8字节] [PageNumber 4字节] [Checksum 4字节]
+ * Block: 32 个 Entry，正好一个扇区，依次为第 2 到 33 页、第 34 到 65 页……
+ * Entry: [Offset 8字节] [Length 4字节] [Sectors 4字节]
+ * Offset 为 0 表示页面还没有写过，读出来全为 0；Length 为存放的字节数，等于页面大小时表示没有压缩
+ *
+ * 写回总是写到新的槽（写时复制），不覆盖页面现有的内容，映射表只在 force() 时落盘。
+ * 第 g 次 force() 写第 g % 2 份映射表：先写映射项并落盘，再写这一份的 Header 并落盘，
+ * 打开时使用校验和正确、Generation 最大的一份。写映射项时崩溃，撕裂的只是旧的那一份，
+ * Header 还没有更新，打开时仍然用另一份；页数和映射项在同一份中，不会对不上。
+ * 两份映射表不共用扇区，写一份不会撕裂另一份。
+ * 旧的槽要等指向新槽的映射表落盘之后才能复用，所以崩溃之后映射表指向的槽一定是这一页某个完整的版本，
+ * 之后的修改由恢复时重放日志补上，和不压缩时丢失没有 fsync 的写入是一样的。
+ *
+ * 压缩只在页面读入、写回时进行，缓冲池中的页面都是解压后的普通页面，上层感觉不到。
+ */
+public class CompressedPageFile implements PageFile {
+
+    public static final String MAP_SUFFIX = ".pmt";
+    // 槽按 512 字节对齐分配
+    static final int SECTOR_SIZE = 512;
+    private static final int ENTRY_SIZE = 16;
+    private static final int ENTRIES_PER_BLOCK = SECTOR_SIZE / ENTRY_SIZE;
+    private static final int HEADER_SIZE = 16;
+    private static final int OF_BLOCKS = SECTOR_SIZE * 2;
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private RandomAccessFile mapFile;
+    private FileChannel mapFc;
+    private int pageSize;
+
+    // 读页面持有读锁，分配槽、写页面、修改映射持有写锁
+    private ReentrantReadWriteLock lock;
+    // 下标为页号，第一页不在表中
+    private long[] offsets;
+    private int[] lengths;
+    private int[] sectors;
+    // 逻辑上的页数，页面大小乘以它即为 length()
+    private int pages;
+    // 数据文件中已经分配出去的末尾
+    private long end;
+    // 空闲的槽，下标为扇区数
+    private ArrayDeque<Long>[] free;
+    // 等映射表落盘之后才能复用的槽，[Offset][Sectors]
+    private List<long[]> pendingFree;
+    // 自上次 force() 以来改过的映射项
+    private BitSet dirty;
+    // 上次 force() 写的映射项，另一份映射表中还是旧的，下次写那一份时要一起写
+    private BitSet lagging;
+    // 最近一次落盘的映射表的 Generation
+    private long generation;
+
+    CompressedPageFile(RandomAccessFile file, FileChannel fc, RandomAccessFile mapFile, FileChannel mapFc, int pageSize) {
+        this.file = file;
+        this.fc = fc;
+        this.mapFile = mapFile;
+        this.mapFc = mapFc;
+        this.pageSize = pageSize;
+        this.lock = new ReentrantReadWriteLock();
+        @SuppressWarnings("unchecked")
+        ArrayDeque<Long>[] free = (ArrayDeque<Long>[])new ArrayDeque<?>[pageSize / SECTOR_SIZE + 1];
+        this.free = free;
+        for(int i = 0; i < free.length; i ++) {
+            free[i] = new ArrayDeque<>();
+        }
+        this.pendingFree = new ArrayList<>();
+        this.dirty = new BitSet();
+        this.lagging = new BitSet();
+        loadMap();
+    }
+
+    /**
+     * 打开（不存在时新建）数据库的页面映射表 path.pmt
+     */
+    static CompressedPageFile open(String path, RandomAccessFile file, FileChannel fc, int pageSize) {
+        File f = new File(path+MAP_SUFFIX);
+        RandomAccessFile raf = null;
+        try {
+            f.createNewFile();
+            if(!f.canRead() || !f.canWrite()) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+            raf = new RandomAccessFile(f, "rw");
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return new CompressedPageFile(file, fc, raf, raf.getChannel(), pageSize);
+    }
+
+    // 映射项在文件中的位置
+    static long entryPosition(int copy, int pgno) {
+        int k = pgno - 2;
+        return OF_BLOCKS + ((long)(k / ENTRIES_PER_BLOCK) * 2 + copy) * SECTOR_SIZE
+                + (long)(k % ENTRIES_PER_BLOCK) * ENTRY_SIZE;
+    }
+
+    static long headerPosition(int copy) {
+        return (long)copy * SECTOR_SIZE;
+    }
+
+    static int checksum(byte[] header) {
+        CRC32C crc = new CRC32C();
+        crc.update(header, 0, HEADER_SIZE - 4);
+        return (int)crc.getValue();
+    }
+
+    // 读入 Generation 最大的有效映射表，映射表之外、第一页之后的空间都是空闲的槽
+    private void loadMap() {
+        byte[] raw = null;
+        try {
+            raw = new byte[(int)mapFc.size()];
+            ByteBuffer buf = ByteBuffer.wrap(raw);
+            while(buf.hasRemaining()) {
+                if(mapFc.read(buf, buf.position()) < 0) {
+                    Panic.panic(Error.BadMapFileException);
+                }
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        int copy = -1;
+        int count = 0;
+        for(int c = 0; c < 2; c ++) {
+            int pos = (int)headerPosition(c);
+            if(raw.length < pos + HEADER_SIZE) {
+                continue;
+            }
+            byte[] header = Arrays.copyOfRange(raw, pos, pos + HEADER_SIZE);
+            long gen = Parser.parseLong(Arrays.copyOfRange(header, 0, 8));
+            int sum = Parser.parseInt(Arrays.copyOfRange(header, 12, 16));
+            if(gen <= 0 || sum != checksum(header) || (copy >= 0 && gen <= generation)) {
+                continue;
+            }
+            copy = c;
+            generation = gen;
+            count = Parser.parseInt(Arrays.copyOfRange(header, 8, 12));
+        }
+        this.pages = count;
+        int cap = Math.max(count + 1, 64);
+        this.offsets = new long[cap];
+        this.lengths = new int[cap];
+        this.sectors = new int[cap];
+        List<long[]> used = new ArrayList<>();
+        for(int pgno = 2; pgno <= count; pgno ++) {
+            int pos = (int)entryPosition(copy, pgno);
+            if(pos + ENTRY_SIZE > raw.length) {
+                continue;
+            }
+            offsets[pgno] = Parser.parseLong(Arrays.copyOfRange(raw, pos, pos+8));
+            lengths[pgno] = Parser.parseInt(Arrays.copyOfRange(raw, pos+8, pos+12));
+            sectors[pgno] = Parser.parseInt(Arrays.copyOfRange(raw, pos+12, pos+16));
+            if(offsets[pgno] != 0) {
+                used.add(new long[]{offsets[pgno], sectors[pgno]});
+            }
+        }
+        // 不知道另一份映射表落后了多少，第一次 force() 把所有映射项都写一遍
+        if(count >= 2) {
+            lagging.set(2, count + 1);
+        }
+        used.sort((a, b) -> Long.compare(a[0], b[0]));
+        long pos = pageSize;
+        for(long[] u : used) {
+            addFree(pos, (int)((u[0] - pos) / SECTOR_SIZE));
+            pos = u[0] + u[1] * SECTOR_SIZE;
+        }
+        this.end = pos;
+    }
+
+    // 把一段连续的空闲空间按槽的大小切开放入空闲表
+    private void addFree(long offset, int count) {
+        int max = free.length - 1;
+        while(count > 0) {
+            int c = Math.min(count, max);
+            free[c].push(offset);
+            offset += (long)c * SECTOR_SIZE;
+            count -= c;
+        }
+    }
+
+    // 先找大小正好的空闲槽，再找更大的切开用，都没有时从文件末尾分配
+    private long allocate(int count) {
+        if(!free[count].isEmpty()) {
+            return free[count].pop();
+        }
+        for(int c = count + 1; c < free.length; c ++) {
+            if(!free[c].isEmpty()) {
+                long offset = free[c].pop();
+                free[c - count].push(offset + (long)count * SECTOR_SIZE);
+                return offset;
+            }
+        }
+        long offset = end;
+        end += (long)count * SECTOR_SIZE;
+        return offset;
+    }
+
+    @Override
+    public void read(int pgno, byte[] buf) {
+        // 一次读多个页面（预读）时逐页读
+        for(int done = 0; done < buf.length; done += pageSize, pgno ++) {
+            readPage(pgno, buf, done);
+        }
+    }
+
+    private void readPage(int pgno, byte[] buf, int at) {
+        if(pgno == 1) {
+            readAt(0, buf, at, pageSize);
+            return;
+        }
+        byte[] stored;
+        int length;
+        lock.readLock().lock();
+        try {
+            if(pgno >= offsets.length || offsets[pgno] == 0) {
+                Arrays.fill(buf, at, at + pageSize, (byte)0);
+                return;
+            }
+            length = lengths[pgno];
+            if(length == pageSize) {
+                readAt(offsets[pgno], buf, at, pageSize);
+                return;
+            }
+            stored = new byte[length];
+            readAt(offsets[pgno], stored, 0, length);
+        } finally {
+            lock.readLock().unlock();
+        }
+        byte[] page = at == 0 && buf.length == pageSize ? buf : new byte[pageSize];
+        int n = 0;
+        try {
+            n = LZ4Codec.decompress(stored, length, page);
+        } catch(IllegalArgumentException e) {
+            Panic.panic(Error.BadCompressedPageException);
+        }
+        if(n != pageSize) {
+            Panic.panic(Error.BadCompressedPageException);
+        }
+        if(page != buf) {
+            System.arraycopy(page, 0, buf, at, pageSize);
+        }
+    }
+
+    @Override
+    public void write(int pgno, byte[] buf) {
+        if(pgno == 1) {
+            writeAt(0, buf, pageSize);
+            lock.writeLock().lock();
+            try {
+                pages = Math.max(pages, 1);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        // 压缩后至少省下一个扇区才值得压缩
+        byte[] compressed = new byte[pageSize - SECTOR_SIZE];
+        int length = LZ4Codec.compress(buf, pageSize, compressed);
+        byte[] stored = compressed;
+        if(length < 0) {
+            stored = buf;
+            length = pageSize;
+        }
+        int count = (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        lock.writeLock().lock();
+        try {
+            long offset = allocate(count);
+            writeAt(offset, stored, length);
+            ensureCapacity(pgno);
+            if(offsets[pgno] != 0) {
+                pendingFree.add(new long[]{offsets[pgno], sectors[pgno]});
+            }
+            offsets[pgno] = offset;
+            lengths[pgno] = length;
+            sectors[pgno] = count;
+            pages = Math.max(pages, pgno);
+            dirty.set(pgno);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int pgno) {
+        if(pgno < offsets.length) {
+            return;
+        }
+        int cap = Math.max(pgno + 1, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+        sectors = Arrays.copyOf(sectors, cap);
+    }
+
+    /**
+     * 数据文件落盘之后，把映射表写到旧的那一份并落盘，再写这一份的 Header 并落盘，
+     * 最后放出等待复用的旧槽
+     */
+    @Override
+    public void force() {
+        lock.writeLock().lock();
+        try {
+            fc.force(false);
+            long gen = generation + 1;
+            int copy = (int)(gen % 2);
+            BitSet write = (BitSet)dirty.clone();
+            write.or(lagging);
+            for(int pgno = write.nextSetBit(0); pgno >= 0; pgno = write.nextSetBit(pgno + 1)) {
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                if(pgno < offsets.length) {
+                    entry.putLong(offsets[pgno]).putInt(lengths[pgno]).putInt(sectors[pgno]);
+                }
+                entry.clear();
+                long pos = entryPosition(copy, pgno);
+                while(entry.hasRemaining()) {
+                    mapFc.write(entry, pos + entry.position());
+                }
+            }
+            mapFc.force(false);
+            byte[] header = new byte[HEADER_SIZE];
+            System.arraycopy(Parser.long2Byte(gen), 0, header, 0, 8);
+            System.arraycopy(Parser.int2Byte(pages), 0, header, 8, 4);
+            System.arraycopy(Parser.int2Byte(checksum(header)), 0, header, 12, 4);
+            ByteBuffer hb = ByteBuffer.wrap(header);
+            while(hb.hasRemaining()) {
+                mapFc.write(hb, headerPosition(copy) + hb.position());
+            }
+            mapFc.force(false);
+            generation = gen;
+            lagging = dirty;
+            dirty = new BitSet();
+            for(long[] p : pendingFree) {
+                addFree(p[0], (int)p[1]);
+            }
+            pendingFree.clear();
+        } catch(IOException e) {
+            Panic.panic(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 逻辑长度：页数乘以页面大小
+    @Override
+    public long length() {
+        lock.readLock().lock();
+        try {
+            return pages * (long)pageSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 压缩存储时没有预分配的意义，只把逻辑长度扩大，扩出来的页面读出来全为 0
+    @Override
+    public void extend(long size) {
+        lock.writeLock().lock();
+        try {
+            pages = Math.max(pages, (int)(size / pageSize));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        lock.writeLock().lock();
+        try {
+            int newPages = (int)(size / pageSize);
+            for(int pgno = newPages + 1; pgno < offsets.length; pgno ++) {
+                if(offsets[pgno] != 0) {
+                    pendingFree.add(new long[]{offsets[pgno], sectors[pgno]});
+                    offsets[pgno] = 0;
+                    lengths[pgno] = 0;
+                    sectors[pgno] = 0;
+                    dirty.set(pgno);
+                }
+            }
+            pages = newPages;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+        try {
+            fc.close();
+            file.close();
+            mapFc.close();
+            mapFile.close();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void readAt(long offset, byte[] buf, int at, int len) {
+        ByteBuffer bb = ByteBuffer.wrap(buf, at, len);
+        try {
+            while(bb.hasRemaining()) {
+                if(fc.read(bb, offset + bb.position() - at) < 0) {
+                    break;
+                }
+            }
+            Arrays.fill(buf, bb.position(), at + len, (byte)0);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void writeAt(long offset, byte[] buf, int len) {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        try {
+            while(bb.hasRemaining()) {
+                fc.write(bb, offset + bb.position());
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 以 O_DIRECT 方式访问数据文件，读写绕过操作系统的页缓存
+ * 默认的方式下每个页面在缓冲池和操作系统的页缓存里各有一份，-mem 设得很大时一半的内存是浪费的；
+ * 直接 I/O 时页面只缓存在缓冲池中，内存完全由缓冲池管理。
+ *
+ * 直接 I/O 要求内存地址、文件偏移和长度都按块对齐。页面大小是 4K 的整数倍，文件偏移和长度天然对齐，
+ * 内存则用对齐的堆外缓冲区中转：每个线程持有一个，读写时在它和缓冲池的页框之间复制。
+ * ExtendedOpenOption.DIRECT 是 JDK 10 的 API，alignedSlice() 是 JDK 9 的 API，所以 pom 中 maven.compiler.release 为 10；
+ * 文件系统不支持（例如 tmpfs）时打开失败。
+ */
+public class DirectPageFile implements PageFile {
+
+    // 对齐的单位，不小于常见设备的逻辑块大小
+    static final int ALIGNMENT = PageCache.MIN_PAGE_SIZE;
+    // 扩展文件时每次写入的 0 的字节数
+    private static final int EXTEND_CHUNK = 1 << 20;
+
+    private FileChannel fc;
+    private int pageSize;
+    // 线程私有的对齐缓冲区，一次读多页（预读）时按需增大
+    private ThreadLocal<ByteBuffer> buffers;
+
+    DirectPageFile(FileChannel fc, int pageSize) {
+        this.fc = fc;
+        this.pageSize = pageSize;
+        this.buffers = ThreadLocal.withInitial(() -> alignedBuffer(pageSize));
+    }
+
+    static DirectPageFile open(Path path, int pageSize) {
+        FileChannel fc = null;
+        try {
+            fc = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+        } catch(IOException | UnsupportedOperationException e) {
+            Panic.panic(Error.DirectIONotSupportedException);
+        }
+        return new DirectPageFile(fc, pageSize);
+    }
+
+    static ByteBuffer alignedBuffer(int size) {
+        return ByteBuffer.allocateDirect(size + ALIGNMENT).alignedSlice(ALIGNMENT);
+    }
+
+    private ByteBuffer buffer(int size) {
+        ByteBuffer bb = buffers.get();
+        if(bb.capacity() < size) {
+            bb = alignedBuffer(size);
+            buffers.set(bb);
+        }
+        bb.clear();
+        bb.limit(size);
+        return bb;
+    }
+
+    @Override
+    public void read(int pgno, byte[] buf) {
+        long offset = PageCacheImpl.pageOffset(pgno, pageSize);
+        ByteBuffer bb = buffer(buf.length);
+        try {
+            while(bb.hasRemaining()) {
+                if(fc.read(bb, offset + bb.position()) < 0) {
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        // buf 可能是复用的页框，读不到的部分要清零
+        int n = bb.position();
+        bb.flip();
+        bb.get(buf, 0, n);
+        Arrays.fill(buf, n, buf.length, (byte)0);
+    }
+
+    @Override
+    public void write(int pgno, byte[] buf) {
+        long offset = PageCacheImpl.pageOffset(pgno, pageSize);
+        ByteBuffer bb = buffer(buf.length);
+        bb.put(buf);
+        bb.flip();
+        try {
+            while(bb.hasRemaining()) {
+                fc.write(bb, offset + bb.position());
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 直接 I/O 只绕过页缓存，设备的写缓存和文件的元数据仍然需要 fsync
+    @Override
+    public void force() {
+        try {
+            fc.force(false);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return fc.size();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void extend(long size) {
+        ByteBuffer zeros = alignedBuffer(EXTEND_CHUNK);
+        try {
+            long pos = fc.size();
+            while(pos < size) {
+                zeros.clear();
+                zeros.limit((int)Math.min(EXTEND_CHUNK, size - pos));
+                pos += fc.write(zeros, pos);
+            }
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        try {
+            fc.truncate(size);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            fc.close();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 块格式的纯 Java 实现，用于压缩数据页
+ * 压缩后的数据由若干个序列组成：
+ * [Token][LiteralLength+][Literals][Offset 2字节小端][MatchLength+]
+ * Token 高 4 位为字面量长度，低 4 位为匹配长度减 4，为 15 时后面跟着若干个字节继续累加，直到某个字节不为 255。
+ * 最后一个序列只有字面量，没有 Offset 和匹配长度。
+ *
+ * 只用一张 4096 项的哈希表找匹配，速度优先，数据页里大片的空闲空间（全 0）和重复的字段都能压得很小。
+ */
+class LZ4Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    // 最后 5 个字节一定是字面量，最后一个匹配至少在结尾前 12 个字节开始
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    // 连续找不到匹配时逐渐加大步长，不可压缩的数据不会太慢
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> tables = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    /**
+     * 压缩 src 的前 srcLen 个字节到 dst，返回压缩后的长度，dst 放不下时返回 -1
+     */
+    static int compress(byte[] src, int srcLen, byte[] dst) {
+        int[] table = tables.get();
+        Arrays.fill(table, -1);
+        int anchor = 0, op = 0;
+        if(srcLen > MF_LIMIT) {
+            int ip = 0;
+            int limit = srcLen - MF_LIMIT;
+            int matchLimit = srcLen - LAST_LITERALS;
+            int misses = 0;
+            while(ip < limit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+                if(ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    ip += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                // 向前扩展匹配
+                while(ip > anchor && ref > 0 && src[ip-1] == src[ref-1]) {
+                    ip --;
+                    ref --;
+                }
+                int end = ip + MIN_MATCH;
+                int r = ref + MIN_MATCH;
+                while(end < matchLimit && src[end] == src[r]) {
+                    end ++;
+                    r ++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, end - ip - MIN_MATCH, dst, op);
+                if(op < 0) {
+                    return -1;
+                }
+                ip = end;
+                anchor = ip;
+            }
+        }
+        return writeLastLiterals(src, anchor, srcLen - anchor, dst, op);
+    }
+
+    /**
+     * 解压 src 的前 srcLen 个字节到 dst，返回解压后的长度
+     * 数据损坏时抛出 IllegalArgumentException
+     */
+    static int decompress(byte[] src, int srcLen, byte[] dst) {
+        int ip = 0, op = 0;
+        try {
+            while(ip < srcLen) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if(literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while(b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if(ip >= srcLen) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | (src[ip+1] & 0xFF) << 8;
+                ip += 2;
+                int match = token & 0xF;
+                if(match == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        match += b;
+                    } while(b == 255);
+                }
+                match += MIN_MATCH;
+                int ref = op - offset;
+                if(offset == 0 || ref < 0) {
+                    throw new IllegalArgumentException("Bad offset " + offset);
+                }
+                if(offset >= match) {
+                    System.arraycopy(dst, ref, dst, op, match);
+                    op += match;
+                } else {
+                    // 重叠的匹配（例如一串相同的字节）只能逐字节复制
+                    for(int i = 0; i < match; i ++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch(IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupted data", e);
+        }
+        return op;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int match, byte[] dst, int op) {
+        if(op + 1 + literals + literals / 255 + 1 + 2 + match / 255 + 1 > dst.length) {
+            return -1;
+        }
+        int token = op++;
+        op = writeLength(dst, op, literals);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        op += literals;
+        dst[op++] = (byte)offset;
+        dst[op++] = (byte)(offset >>> 8);
+        op = writeLength(dst, op, match);
+        dst[token] = (byte)(Math.min(literals, 15) << 4 | Math.min(match, 15));
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literals, byte[] dst, int op) {
+        if(op + 1 + literals + literals / 255 + 1 > dst.length) {
+            return -1;
+        }
+        dst[op++] = (byte)(Math.min(literals, 15) << 4);
+        op = writeLength(dst, op, literals);
+        System.arraycopy(src, literalStart, dst, op, literals);
+        return op + literals;
+    }
+
+    // 长度不小于 15 时，超出的部分按 255 一个字节写在后面
+    private static int writeLength(byte[] dst, int op, int len) {
+        if(len < 15) {
+            return op;
+        }
+        len -= 15;
+        while(len >= 255) {
+            dst[op++] = (byte)255;
+            len -= 255;
+        }
+        dst[op++] = (byte)len;
+        return op;
+    }
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | (buf[pos+1] & 0xFF) << 8 | (buf[pos+2] & 0xFF) << 16 | (buf[pos+3] & 0xFF) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
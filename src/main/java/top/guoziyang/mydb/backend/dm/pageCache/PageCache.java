@@ -2,17 +2,30 @@ package top.guoziyang.mydb.backend.dm.pageCache;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 
+import top.guoziyang.mydb.backend.dm.DMOptions;
 import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageOne;
 import top.guoziyang.mydb.backend.utils.Panic;
 import top.guoziyang.mydb.common.Error;
 
 public interface PageCache {
 
-    // me:2^13=2^3*2^10=8K
+    // 默认的页面大小，me:2^13=2^3*2^10=8K
+    // 页面大小在创建数据库时选定并记录在第一页中，打开时以第一页中的为准，运行时通过 getPageSize() 获取
     public static final int PAGE_SIZE = 1 << 13;
+    // 页面大小必须是 2 的幂。页内偏移用 2 字节存储，最大 32K
+    public static final int MIN_PAGE_SIZE = 1 << 12;
+    public static final int MAX_PAGE_SIZE = 1 << 15;
+
+    // 数据文件的访问方式：FileChannel 读写
+    public static final String IO_CHANNEL = "channel";
+    // 直接 I/O，绕过操作系统的页缓存，见 DirectPageFile
+    public static final String IO_DIRECT = "direct";
 
     int newPage(byte[] initData);
     Page getPage(int pgno) throws Exception;
@@ -21,9 +34,29 @@ public interface PageCache {
 
     void truncateByBgno(int maxPgno);
     int getPageNumber();
+    int getPageSize();
+    // 缓冲池最多容纳的页面数
+    int getCapacity();
     void flushPage(Page pg);
+    // 写回调用时所有的脏页并 fsync，超时仍有页面没写回时返回 false
+    boolean flushDirty(long timeoutMs);
+    // 提示即将顺序访问从 pgno 开始的 count 个页面，可以提前异步读入缓冲池
+    void prefetch(int pgno, int count);
+    // 页面当前是否在缓冲池中
+    boolean isCached(int pgno);
+    // 页面当前被引用（持有）的次数
+    int getReferences(int pgno);
+    // 数据页是否压缩存储
+    boolean isCompressed();
 
     public static PageCacheImpl create(String path, long memory) {
+        return create(path, DMOptions.withMem(memory));
+    }
+
+    public static PageCacheImpl create(String path, DMOptions opt) {
+        if(!isValidPageSize(opt.pageSize)) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         try {
             if(!f.createNewFile()) {
@@ -44,10 +77,22 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return newPageCache(path, raf, fc, opt, opt.pageSize, opt.compress);
     }
 
     public static PageCacheImpl open(String path, long memory) {
+        return open(path, DMOptions.withMem(memory));
+    }
+
+    public static PageCacheImpl open(String path, DMOptions opt) {
+        return open(path, opt, opt.pageSize, opt.compress);
+    }
+
+    // 按给定的页面大小、存储方式打开，DataManager 打开时用 readHeader() 读出数据库创建时的设置
+    public static PageCacheImpl open(String path, DMOptions opt, int pageSize, boolean compressed) {
+        if(!isValidPageSize(pageSize)) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         File f = new File(path+PageCacheImpl.DB_SUFFIX);
         if(!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -64,6 +109,60 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
            Panic.panic(e);
         }
-        return new PageCacheImpl(raf, fc, (int)memory/PAGE_SIZE);
+        return newPageCache(path, raf, fc, opt, pageSize, compressed);
+    }
+
+    // 压缩存储时页面的位置由映射表决定，只能通过 FileChannel 读写，忽略 io 设置
+    static PageCacheImpl newPageCache(String path, RandomAccessFile raf, FileChannel fc, DMOptions opt, int pageSize, boolean compressed) {
+        PageFile pf = compressed ? CompressedPageFile.open(path, raf, fc, pageSize)
+                : newPageFile(path+PageCacheImpl.DB_SUFFIX, raf, fc, opt.io, pageSize);
+        return new PageCacheImpl(pf, pageSize, capacity(opt.mem, pageSize),
+                opt.flushInterval, opt.extentSize, opt.readAhead);
+    }
+
+    /**
+     * 读出数据库第一页的头部（页面大小、标志位），用 PageOne 解析
+     * 这时还不知道页面大小，只读第一页的头部
+     */
+    public static byte[] readHeader(String path) {
+        File f = new File(path+PageCacheImpl.DB_SUFFIX);
+        if(!f.exists()) {
+            Panic.panic(Error.FileNotExistsException);
+        }
+        byte[] header = new byte[PageOne.HEADER_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.readFully(header);
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+        return header;
+    }
+
+    public static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
+    }
+
+    /**
+     * 内存大小（字节）能容纳的页面数
+     * 先用 long 做除法再转 int，-mem 4GB 这样的配置不会溢出
+     */
+    public static int capacity(long memory, int pageSize) {
+        return (int)Math.min(Integer.MAX_VALUE, memory / pageSize);
+    }
+
+    static PageFile newPageFile(String file, RandomAccessFile raf, FileChannel fc, String io, int pageSize) {
+        if(IO_DIRECT.equals(io)) {
+            // 直接 I/O 需要带 O_DIRECT 重新打开，检查文件时打开的这个用不上了
+            try {
+                raf.close();
+            } catch(IOException e) {
+                Panic.panic(e);
+            }
+            return DirectPageFile.open(Paths.get(file), pageSize);
+        }
+        if(!IO_CHANNEL.equals(io)) {
+            Panic.panic(Error.InvalidIOModeException);
+        }
+        return new ChannelPageFile(raf, fc, pageSize);
     }
 }
@@ -1,12 +1,21 @@
 package top.guoziyang.mydb.backend.dm.pageCache;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import top.guoziyang.mydb.backend.common.AbstractCache;
 import top.guoziyang.mydb.backend.dm.page.Page;
@@ -17,44 +26,265 @@ import top.guoziyang.mydb.common.Error;
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     
     private static final int MEM_MIN_LIM = 10;
+    // 空闲页框最多保留的个数。驱逐之后紧接着就是一次读入，空闲页框不会堆积，留几十个足够
+    private static final int MAX_FREE_FRAMES = 64;
+    // 连续顺序访问多少个页面之后开始预读
+    private static final int SEQ_TRIGGER = 3;
+    // 预读线程数
+    private static final int READ_AHEAD_THREADS = 2;
+    // 检查点写回脏页时一批的页面数，以及等待被引用的脏页时重试的间隔（毫秒）
+    private static final int FLUSH_BATCH = 256;
+    private static final long FLUSH_RETRY_INTERVAL = 5;
     public static final String DB_SUFFIX = ".db";
 
-    private RandomAccessFile file;
-    private FileChannel fc;
-    private Lock fileLock;
+    // 页面的读写方式：FileChannel、直接 I/O 或压缩存储
+    private PageFile pf;
 
     private AtomicInteger pageNumbers;
 
-    PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
+    // 页面大小，创建数据库时选定
+    private int pageSize;
+
+    // 被驱逐页面留下的页框（一页大小的 byte[]），读入新页面时优先复用，
+    // 缓冲池满载运行时不再为每次未命中分配新数组，减少 GC 的压力。
+    // 页框仍在堆上：PageX、DataItem 和 SubArray 都直接操作 byte[]，换成堆外内存要先改成按缓冲区偏移访问
+    private byte[][] freeFrames;
+    private int freeCount;
+    private Lock frameLock;
+
+    // 后台写回脏页的线程，为 null 时每次写回都立即 fsync
+    private PageWriter writer;
+
+    // 文件每次增长的字节数（页面大小的整数倍），0 表示每次 newPage() 增长一页
+    private long extentSize;
+    // 文件已经分配的长度，pageNumbers 之后到这里为预分配的空间，全部为 0
+    private volatile long allocated;
+    private Lock extendLock;
+
+    // 一次预读的页面数，0 表示不预读
+    private int readAhead;
+    // 预读任务持有读锁，截断时持有写锁：截断要等正在进行的预读结束，
+    // 否则预读暂时持有的页面不会被丢弃，之后驱逐或关闭时写回会让文件重新变长
+    private ReadWriteLock truncateLock;
+    // 写入数据文件的页面数。预读一次读出多页后逐页装入缓冲池，装入前有页面被写回过，
+    // 一次读出的内容就可能是旧的，这时改为逐页从文件读
+    private AtomicLong writes;
+    private int capacity;
+    private ExecutorService readAheadPool;
+    // 顺序访问检测：上一次访问的页号、连续顺序访问的次数，只是启发式的判断，不加锁
+    private volatile int lastPgno;
+    private volatile int seqCount;
+    // 已经提交预读的最大页号
+    private AtomicInteger aheadEnd;
+
+    PageCacheImpl(PageFile pf, int pageSize, int maxResource) {
+        this(pf, pageSize, maxResource, 0, 0, 0);
+    }
+
+    /**
+     * @param flushInterval 后台写回脏页的间隔（毫秒），0 表示不启用后台写回
+     * @param extentSize 文件每次增长的字节数，0 表示不预分配
+     * @param readAhead 顺序访问时一次预读的页面数，0 表示不预读
+     */
+    PageCacheImpl(PageFile pf, int pageSize, int maxResource, long flushInterval, long extentSize, int readAhead) {
         super(maxResource);
+        this.pageSize = pageSize;
+        this.capacity = maxResource;
         if(maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
-        long length = 0;
-        try {
-            length = file.length();
-        } catch (IOException e) {
-            Panic.panic(e);
+        long length = pf.length();
+        this.pf = pf;
+        this.freeFrames = new byte[MAX_FREE_FRAMES][];
+        this.frameLock = new ReentrantLock();
+        this.pageNumbers = new AtomicInteger(countPages(pf, length, pageSize));
+        this.extentSize = extentSize - extentSize % pageSize;
+        this.allocated = length;
+        this.extendLock = new ReentrantLock();
+        this.truncateLock = new ReentrantReadWriteLock();
+        this.writes = new AtomicLong(0);
+        // 预读的页面不能把还没用到的页面挤出缓冲池，窗口最多为容量的一半
+        this.readAhead = Math.min(readAhead, maxResource / 2);
+        this.aheadEnd = new AtomicInteger(0);
+        if(this.readAhead > 0) {
+            this.readAheadPool = Executors.newFixedThreadPool(READ_AHEAD_THREADS, r -> {
+                Thread t = new Thread(r, "page-read-ahead");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if(flushInterval > 0) {
+            this.writer = new PageWriter(this, flushInterval);
+            this.writer.start();
         }
-        this.file = file;
-        this.fc = fileChannel;
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int)length / PAGE_SIZE);
     }
 
     // PageCache 还使用了一个 AtomicInteger，来记录了当前打开的数据库文件有多少页。
     // 这个数字在数据库文件被打开时就会被计算，并在新建页面时自增。
     public int newPage(byte[] initData) {
         int pgno = pageNumbers.incrementAndGet();
-        Page pg = new PageImpl(pgno, initData, null);
-        flush(pg);
+        if(extentSize == 0) {
+            Page pg = new PageImpl(pgno, initData, null);
+            writeBack(pg);
+            return pgno;
+        }
+        // 新页面落在预分配的空间中，只在缓冲池里初始化并标记为脏页，不单独写盘
+        ensureAllocated(pgno);
+        Page pg = null;
+        try {
+            pg = getPage(pgno);
+        } catch(Exception e) {
+            // 缓冲池被占满时直接写入文件
+            writeBack(new PageImpl(pgno, initData, null));
+            return pgno;
+        }
+        System.arraycopy(initData, 0, pg.getData(), 0, pageSize);
+        pg.setDirty(true);
+        pg.release();
         return pgno;
     }
 
+    // 保证文件长度覆盖第 pgno 页，不够时按 extentSize 一次扩展
+    private void ensureAllocated(int pgno) {
+        long end = pageOffset(pgno + 1, pageSize);
+        if(end <= allocated) {
+            return;
+        }
+        extendLock.lock();
+        try {
+            if(end <= allocated) {
+                return;
+            }
+            long size = allocated + extentSize;
+            while(size < end) {
+                size += extentSize;
+            }
+            pf.extend(size);
+            allocated = size;
+        } finally {
+            extendLock.unlock();
+        }
+    }
+
+    // 文件中真正的页面数：预分配但还没有用到的页面全为 0，
+    // 而真正的页面至少 FSO 不为 0（第一页有校验字节），从文件末尾往前跳过全 0 的页面即可
+    private static int countPages(PageFile pf, long length, int pageSize) {
+        int pages = (int)(length / pageSize);
+        byte[] buf = new byte[pageSize];
+        while(pages > 0) {
+            pf.read(pages, buf);
+            if(!allZero(buf)) {
+                break;
+            }
+            pages --;
+        }
+        return pages;
+    }
+
+    private static boolean allZero(byte[] buf) {
+        for(byte b : buf) {
+            if(b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public Page getPage(int pgno) throws Exception {
+        if(readAhead > 0) {
+            detectSequential(pgno);
+        }
         return get((long)pgno);
     }
 
+    public boolean isCached(int pgno) {
+        return isCached((long)pgno);
+    }
+
+    public int getReferences(int pgno) {
+        return getReferences((long)pgno);
+    }
+
+    public void prefetch(int pgno, int count) {
+        if(readAhead > 0) {
+            submitReadAhead(pgno, Math.min(count, readAhead));
+        }
+    }
+
+    // 连续 SEQ_TRIGGER 次按页号顺序访问后，预读接下来的 readAhead 个页面；
+    // 访问推进到预读窗口的一半时再提交下一段，让预读始终走在访问的前面
+    private void detectSequential(int pgno) {
+        int last = lastPgno;
+        lastPgno = pgno;
+        if(pgno != last + 1) {
+            seqCount = 0;
+            return;
+        }
+        if(++seqCount < SEQ_TRIGGER) {
+            return;
+        }
+        int end = aheadEnd.get();
+        int start;
+        if(end < pgno || end - pgno > readAhead) {
+            // 预读窗口落在后面或者是另一次扫描留下的，从当前位置重新开始
+            start = pgno + 1;
+        } else if(pgno + readAhead / 2 <= end) {
+            return;
+        } else {
+            start = end + 1;
+        }
+        int newEnd = pgno + readAhead;
+        if(newEnd >= start && aheadEnd.compareAndSet(end, newEnd)) {
+            submitReadAhead(start, newEnd - start + 1);
+        }
+    }
+
+    private void submitReadAhead(int start, int count) {
+        try {
+            readAheadPool.execute(() -> readAhead(start, count));
+        } catch(RejectedExecutionException e) {
+            // 已经关闭
+        }
+    }
+
+    // 先用一次大块读读出这段页面，再逐页装入缓冲池，装入时直接使用读出的内容，不再读文件。
+    // 逐页装入走正常的 get()，和并发的访问合并成一次获取，不会出现两份页面；
+    // 已经在缓冲池中的页面以缓冲池中的为准，读出的内容丢弃
+    private void readAhead(int start, int count) {
+        // 正在截断时放弃这次预读
+        if(!truncateLock.readLock().tryLock()) {
+            return;
+        }
+        try {
+            int end = Math.min(start + count - 1, pageNumbers.get());
+            if(start < 1 || end < start) {
+                return;
+            }
+            long epoch = writes.get();
+            byte[] bulk = new byte[(end - start + 1) * pageSize];
+            pf.read(start, bulk);
+            for(int pgno = start; pgno <= end; pgno ++) {
+                int offset = (pgno - start) * pageSize;
+                try {
+                    get((long)pgno, key -> {
+                        if(writes.get() != epoch) {
+                            return getForCache(key);
+                        }
+                        byte[] buf = takeFrame();
+                        System.arraycopy(bulk, offset, buf, 0, pageSize);
+                        return new PageImpl((int)key, buf, this);
+                    });
+                } catch(Exception e) {
+                    // 缓冲池被占满，放弃剩下的预读
+                    return;
+                }
+                release((long)pgno);
+            }
+        } finally {
+            truncateLock.readLock().unlock();
+        }
+    }
+
 //    页面缓存的具体实现类，需要继承抽象缓存框架，并且实现 getForCache() 和 releaseForCache() 两个抽象方法。
 //    由于数据源就是文件系统，getForCache() 直接从文件中读取，并包裹成 Page 即可:
     /**
@@ -64,30 +294,48 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int)key;
-        // me:偏移量,按照key值获得偏移量
-        long offset = PageCacheImpl.pageOffset(pgno);
-
-        // me:获得块大小的字节流
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
-        try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch(IOException e) {
-            Panic.panic(e);
-        }
-        fileLock.unlock();
-        return new PageImpl(pgno, buf.array(), this);
+        // me:获得块大小的字节流,按照页号从文件中读出
+        byte[] buf = takeFrame();
+        pf.read(pgno, buf);
+        return new PageImpl(pgno, buf, this);
     }
 
     // releaseForCache() 驱逐页面时，也只需要根据页面是否是脏页面，来决定是否需要写回文件系统：
+    // 页面被 release 后仍会留在缓冲池中，只有缓冲池满了被 CLOCK 选中驱逐，或者关闭时才会调用这里
     // me:实现AbstractCache中:当资源被驱逐时的写回行为
     @Override
     protected void releaseForCache(Page pg) {
         if(pg.isDirty()) {
-            flush(pg);
+            writeBack(pg);
             pg.setDirty(false);
         }
+        // 页面已经没有引用，DataItem 也都随之释放了，页框可以交给下一次读入使用
+        giveFrame(pg.getData());
+    }
+
+    private byte[] takeFrame() {
+        frameLock.lock();
+        try {
+            if(freeCount > 0) {
+                byte[] frame = freeFrames[--freeCount];
+                freeFrames[freeCount] = null;
+                return frame;
+            }
+        } finally {
+            frameLock.unlock();
+        }
+        return new byte[pageSize];
+    }
+
+    private void giveFrame(byte[] frame) {
+        frameLock.lock();
+        try {
+            if(freeCount < MAX_FREE_FRAMES) {
+                freeFrames[freeCount++] = frame;
+            }
+        } finally {
+            frameLock.unlock();
+        }
     }
 
     public void release(Page page) {
@@ -100,50 +348,164 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     // me:按照Page的PageNumber找到对应偏移量,把数据写回文件中
     private void flush(Page pg) {
-        int pgno = pg.getPageNumber();
-        long offset = pageOffset(pgno);
+        writePage(pg.getPageNumber(), pg.getData());
+        pf.force();
+    }
 
-        fileLock.lock();
-        try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
-            fc.position(offset);
-            fc.write(buf);
-            fc.force(false);
-        } catch(IOException e) {
-            Panic.panic(e);
-        } finally {
-            fileLock.unlock();
+    private void writePage(int pgno, byte[] data) {
+        pf.write(pgno, data);
+        writes.incrementAndGet();
+    }
+
+    // 驱逐、新建页面时的写回。启用后台写回时不再逐页 fsync，由 PageWriter 每批 fsync 一次，关闭时再 fsync。
+    // 恢复时会重放上一个检查点之后的日志，检查点之前的写入在记录检查点前都已经 fsync（见 flushDirty()），
+    // 数据文件上没有 fsync 的写入在崩溃后丢失也能由日志补回
+    private void writeBack(Page pg) {
+        if(writer == null) {
+            flush(pg);
+        } else {
+            writePage(pg.getPageNumber(), pg.getData());
+        }
+    }
+
+    /**
+     * 写回一批未被引用的脏页，返回写回的页数
+     *
+     * 只挑选引用数为 0 的页面：页面上的修改都是在持有引用期间完成的，并且在修改之前
+     * （插入）或释放之前（更新的 after()）已经写入日志，而 log() 返回时日志已经落盘，
+     * 所以写出去的页面一定被已持久化的日志覆盖，满足先写日志的要求。
+     * 页面内容在段锁内拷贝出来，拷贝期间没有线程能修改它；写回期间持有一次引用，页面不会被驱逐。
+     * 一批页面按页号排序后依次写入，整批只 fsync 一次。
+     */
+    int writeBackIdle(int limit) {
+        return writeBackIdle(pg -> true, limit);
+    }
+
+    private int writeBackIdle(Predicate<Page> filter, int limit) {
+        List<byte[]> copies = new ArrayList<>();
+        List<Page> pinned = pinIdle(pg -> {
+            if(!pg.isDirty() || !filter.test(pg)) {
+                return false;
+            }
+            copies.add(Arrays.copyOf(pg.getData(), pageSize));
+            pg.setDirty(false);
+            return true;
+        }, limit);
+        if(pinned.isEmpty()) {
+            return 0;
+        }
+        // 高 32 位为页号，低 32 位为在 pinned 中的下标，排序后即为按页号的写入顺序
+        long[] order = new long[pinned.size()];
+        for(int i = 0; i < order.length; i ++) {
+            order[i] = (long)pinned.get(i).getPageNumber() << 32 | i;
+        }
+        Arrays.sort(order);
+        for(long o : order) {
+            writePage((int)(o >>> 32), copies.get((int)o));
+        }
+        pf.force();
+        for(Page pg : pinned) {
+            release(pg);
+        }
+        return pinned.size();
+    }
+
+    /**
+     * 检查点用：把调用时缓冲池中的所有脏页写回并 fsync，返回是否全部写回
+     *
+     * 调用之后才变脏的页面不用管。正被引用的脏页要等它被释放后才能写回（理由见 writeBackIdle()），
+     * 每隔一小段时间重试一次，超过 timeoutMs 仍有没写回的页面时返回 false。
+     * 期间被驱逐或被后台线程写回的页面已经不脏了，不再等待。
+     * 第一页一直被 DataManager 持有，由它自己用 flushPage() 写回，这里跳过。
+     */
+    public boolean flushDirty(long timeoutMs) {
+        Set<Long> dirty = new HashSet<>(keysMatching(pg -> pg.isDirty() && pg.getPageNumber() != 1));
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while(true) {
+            while(writeBackIdle(pg -> dirty.contains((long)pg.getPageNumber()), FLUSH_BATCH) == FLUSH_BATCH);
+            dirty.retainAll(keysMatching(Page::isDirty));
+            if(dirty.isEmpty()) {
+                break;
+            }
+            if(System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(FLUSH_RETRY_INTERVAL);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
+        // 驱逐时写回的页面不一定 fsync 过，正在写回的也要等它写完
+        awaitEvictions();
+        pf.force();
+        return true;
     }
 
     public void truncateByBgno(int maxPgno) {
-        long size = pageOffset(maxPgno + 1);
+        truncateLock.writeLock().lock();
         try {
-            file.setLength(size);
-        } catch (IOException e) {
-            Panic.panic(e);
+            // 被截掉的页面可能还留在缓冲池中，直接丢弃，否则驱逐时写回会让文件重新变长
+            int old = pageNumbers.get();
+            for(int pgno = maxPgno + 1; pgno <= old; pgno ++) {
+                discard((long)pgno);
+            }
+            // 正在驱逐写回的页面写完之后才能截断
+            awaitEvictions();
+            long size = pageOffset(maxPgno + 1, pageSize);
+            extendLock.lock();
+            try {
+                pf.truncate(size);
+                allocated = size;
+            } finally {
+                extendLock.unlock();
+            }
+            pageNumbers.set(maxPgno);
+        } finally {
+            truncateLock.writeLock().unlock();
         }
-        pageNumbers.set(maxPgno);
     }
 
     @Override
     public void close() {
+        if(readAheadPool != null) {
+            readAheadPool.shutdown();
+            try {
+                readAheadPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(writer != null) {
+            writer.stop();
+        }
         super.close();
-        try {
-            fc.close();
-            file.close();
-        } catch (IOException e) {
-            Panic.panic(e);
+        if(writer != null) {
+            pf.force();
         }
+        pf.close();
     }
 
     public int getPageNumber() {
         return pageNumbers.intValue();
     }
 
-    private static long pageOffset(int pgno) {
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isCompressed() {
+        return pf instanceof CompressedPageFile;
+    }
+
+    static long pageOffset(int pgno, int pageSize) {
         //  页号从1开始
-        return (pgno-1) * PAGE_SIZE;
+        return (long)(pgno-1) * pageSize;
     }
     
 }
@@ -0,0 +1,20 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+/**
+ * 数据文件的页面读写方式
+ * PageCacheImpl 只负责缓存页面，页面怎样从文件中读出、写回由 PageFile 的实现决定
+ */
+public interface PageFile {
+    // 从第 pgno 页开始读满 buf（可以是连续的多页），超出文件末尾的部分为 0
+    void read(int pgno, byte[] buf);
+    // 把 buf 写到第 pgno 页，不保证落盘
+    void write(int pgno, byte[] buf);
+    // 把之前的写入刷到磁盘
+    void force();
+    // 文件长度（字节）
+    long length();
+    // 把文件用 0 填充到 size 字节，真正分配磁盘空间，不保证落盘
+    void extend(long size);
+    void truncate(long size);
+    void close();
+}
@@ -0,0 +1,64 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台写回脏页的线程
+ * 每隔 interval 毫秒把缓冲池中未被引用的脏页成批写回，一批只 fsync 一次，
+ * 一直写到没有可写回的脏页为止。驱逐时遇到的大多是干净页面，不用在段锁内写盘。
+ */
+class PageWriter implements Runnable {
+
+    // 一批最多写回的页面数
+    private static final int BATCH = 256;
+
+    private PageCacheImpl pc;
+    private long interval;
+    private Thread thread;
+    // 停止时 countDown，唤醒等待中的写回线程
+    // 不能用 interrupt：在 FileChannel 读写时被中断会导致 channel 被关闭
+    private CountDownLatch stopped;
+
+    PageWriter(PageCacheImpl pc, long interval) {
+        this.pc = pc;
+        this.interval = interval;
+        this.stopped = new CountDownLatch(1);
+    }
+
+    void start() {
+        thread = new Thread(this, "page-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 停止后剩下的脏页由 PageCache 关闭时写回
+    void stop() {
+        stopped.countDown();
+        boolean interrupted = false;
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                if(stopped.await(interval, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            while(stopped.getCount() > 0 && pc.writeBackIdle(BATCH) == BATCH);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package top.guoziyang.mydb.backend.dm.pageIndex;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
+import top.guoziyang.mydb.common.Error;
+
+/**
+ * 空闲空间表（FSM），记录每个数据页的空闲空间，打开数据库时用它重建 PageIndex，不必读遍所有页面
+ *
+ * 文件格式：
+ * [PageNumber] [Checksum] [Page0] [Page1] ... [PageN]
+ * PageNumber 4字节int，记录表覆盖的页数
+ * Checksum 4字节int，是 PageNumber 和各页空闲空间的 CRC32C，写到一半崩溃时表不可用
+ * 每页 1 字节，为空闲空间除以 unit 向下取整，得到的空闲空间只会偏小，不会让插入越界
+ *
+ * 运行时只在内存中更新，检查点和正常关闭时整体写回并 fsync，正常关闭时之后才写第一页的关闭校验字节。
+ * 异常关闭后，表记录的是最近一次检查点时的空闲空间，之后改过的页面恢复时都会重做或撤销，
+ * 恢复时更新这些页面在表中的空闲空间，表覆盖不到的页面再读出来计算，不必扫描所有页面。
+ */
+public class FreeSpaceMap {
+
+    public static final String FSM_SUFFIX = ".fsm";
+    private static final int OF_CHECKSUM = 4;
+    private static final int OF_DATA = 8;
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private Lock lock;
+    // 下标为页号
+    private byte[] spaces;
+    // 每个单位代表的空闲字节数，一页的空闲空间用一个字节表示，为页面大小的 1/256
+    private final int unit;
+
+    FreeSpaceMap(RandomAccessFile file, FileChannel fc, int pageSize) {
+        this.file = file;
+        this.fc = fc;
+        this.unit = pageSize / 256;
+        this.lock = new ReentrantLock();
+        this.spaces = new byte[64];
+    }
+
+    public static FreeSpaceMap create(String path, int pageSize) {
+        File f = new File(path+FSM_SUFFIX);
+        try {
+            if(!f.createNewFile()) {
+                Panic.panic(Error.FileExistsException);
+            }
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return openFile(f, pageSize);
+    }
+
+    // 旧版本创建的数据库没有空闲空间表，这时新建一个空表，第一次打开时扫描页面重建
+    public static FreeSpaceMap open(String path, int pageSize) {
+        File f = new File(path+FSM_SUFFIX);
+        try {
+            f.createNewFile();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return openFile(f, pageSize);
+    }
+
+    private static FreeSpaceMap openFile(File f, int pageSize) {
+        if(!f.canRead() || !f.canWrite()) {
+            Panic.panic(Error.FileCannotRWException);
+        }
+        FileChannel fc = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "rw");
+            fc = raf.getChannel();
+        } catch (FileNotFoundException e) {
+           Panic.panic(e);
+        }
+        return new FreeSpaceMap(raf, fc, pageSize);
+    }
+
+    /**
+     * 从文件读入空闲空间表并填充 pIndex
+     * 表覆盖的页数与 pageNumber 不一致时不可用，返回 false
+     */
+    public boolean load(int pageNumber, PageIndex pIndex) {
+        if(read() != pageNumber) {
+            return false;
+        }
+        fill(pageNumber, pIndex);
+        return true;
+    }
+
+    /**
+     * 从文件读入空闲空间表，返回表覆盖的页数，文件为空或者不完整时返回 0
+     * 之后用 set() 修改的页面以修改后的为准
+     */
+    public int read() {
+        byte[] raw = null;
+        try {
+            long size = fc.size();
+            if(size < OF_DATA) {
+                return 0;
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int)size);
+            while(buf.hasRemaining()) {
+                if(fc.read(buf, buf.position()) < 0) {
+                    return 0;
+                }
+            }
+            raw = buf.array();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        int pageNumber = Parser.parseInt(Arrays.copyOfRange(raw, 0, OF_CHECKSUM));
+        if(pageNumber < 0 || raw.length != OF_DATA + pageNumber + 1
+                || Parser.parseInt(Arrays.copyOfRange(raw, OF_CHECKSUM, OF_DATA)) != checksum(raw)) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            spaces = Arrays.copyOfRange(raw, OF_DATA, raw.length);
+        } finally {
+            lock.unlock();
+        }
+        return pageNumber;
+    }
+
+    /**
+     * 把第 2 到 pageNumber 页的空闲空间放入 pIndex，第一页不是数据页
+     */
+    public void fill(int pageNumber, PageIndex pIndex) {
+        byte[] snapshot;
+        lock.lock();
+        try {
+            snapshot = Arrays.copyOf(spaces, Math.max(spaces.length, pageNumber + 1));
+        } finally {
+            lock.unlock();
+        }
+        for(int pgno = 2; pgno <= pageNumber; pgno ++) {
+            pIndex.add(pgno, (snapshot[pgno] & 0xFF) * unit);
+        }
+    }
+
+    private static int checksum(byte[] raw) {
+        CRC32C crc = new CRC32C();
+        crc.update(raw, 0, OF_CHECKSUM);
+        crc.update(raw, OF_DATA, raw.length - OF_DATA);
+        return (int)crc.getValue();
+    }
+
+    // 记录第 pgno 页当前的空闲空间
+    public void set(int pgno, int freeSpace) {
+        lock.lock();
+        try {
+            if(pgno >= spaces.length) {
+                spaces = Arrays.copyOf(spaces, Math.max(pgno + 1, spaces.length * 2));
+            }
+            spaces[pgno] = (byte)(freeSpace / unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 写回整个表并落盘，在检查点、数据库正常关闭写第一页的关闭校验字节之前调用
+    public void flush(int pageNumber) {
+        byte[] raw;
+        lock.lock();
+        try {
+            raw = new byte[OF_DATA + pageNumber + 1];
+            System.arraycopy(Parser.int2Byte(pageNumber), 0, raw, 0, OF_CHECKSUM);
+            System.arraycopy(spaces, 0, raw, OF_DATA, Math.min(spaces.length, pageNumber + 1));
+        } finally {
+            lock.unlock();
+        }
+        System.arraycopy(Parser.int2Byte(checksum(raw)), 0, raw, OF_CHECKSUM, OF_DATA - OF_CHECKSUM);
+        try {
+            fc.truncate(raw.length);
+            ByteBuffer buf = ByteBuffer.wrap(raw);
+            while(buf.hasRemaining()) {
+                fc.write(buf, buf.position());
+            }
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    public void close() {
+        try {
+            fc.close();
+            file.close();
+        } catch(IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
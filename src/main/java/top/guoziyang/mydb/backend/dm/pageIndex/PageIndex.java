@@ -1,67 +1,102 @@
 package top.guoziyang.mydb.backend.dm.pageIndex;
 
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.IntPredicate;
 
 // MYDB 用一个比较粗略的算法实现了页面索引，将一页的空间划分成了 40 个区间。
 // 在启动时，就会遍历所有的页面信息，获取页面的空闲空间，安排到这 40 个区间中。
 // insert 在请求一个页时，会首先将所需的空间向上取整，映射到某一个区间，随后取出这个区间的任何一页，都可以满足需求。
 
-// PageIndex 的实现也很简单，一个 List 类型的数组。
+// PageIndex 的实现也很简单，一个队列数组，每个区间一个队列。
+// 队列是无锁的（ConcurrentLinkedDeque），add 和 select 都是 O(1)，并发插入时不用争同一把锁。
+// 放回的页面排在队首，最近用过（多半还在缓冲池中）的页面先被选中。
 public class PageIndex {
     // 将一页划成40个区间
     private static final int INTERVALS_NO = 40;
-    // me:每个区间的大小:8K/40
-    private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
+    // 挑选偏好的页面时，最多查看的候选页面数
+    private static final int MAX_PROBE = 8;
 
-    private Lock lock;
-    // me:一个长度40的数组,每个元素的类型为list
-    private List<PageInfo>[] lists;
+    // me:一个长度41的数组,每个元素为一个区间的页面队列
+    private Deque<PageInfo>[] lists;
+    // me:每个区间的大小:页面大小/40
+    private final int threshold;
 
-    @SuppressWarnings("unchecked")
-    public PageIndex() {
-        lock = new ReentrantLock();
-        lists = new List[INTERVALS_NO+1];
+    public PageIndex(int pageSize) {
+        threshold = pageSize / INTERVALS_NO;
+        @SuppressWarnings("unchecked")
+        Deque<PageInfo>[] lists = (Deque<PageInfo>[])new Deque<?>[INTERVALS_NO+1];
+        this.lists = lists;
         for (int i = 0; i < INTERVALS_NO+1; i ++) {
-            lists[i] = new ArrayList<>();
+            lists[i] = new ConcurrentLinkedDeque<>();
         }
     }
 
     // 在上层模块使用完这个页面后，需要将其重新插入 PageIndex:
     public void add(int pgno, int freeSpace) {
-        lock.lock();
-        try {
-            int number = freeSpace / THRESHOLD;
-            lists[number].add(new PageInfo(pgno, freeSpace));
-        } finally {
-            lock.unlock();
-        }
+        add(new PageInfo(pgno, freeSpace));
+    }
+
+    // 放入的就是 select 将来返回的对象，调用方可以据此判断取出的项是否已经过时
+    public void add(PageInfo pi) {
+        int number = pi.freeSpace / threshold;
+        lists[number].offerFirst(pi);
     }
 
     // 从 PageIndex 中获取页面也很简单，算出区间号，直接取即可：
+    // 被取出的页面从索引中删除，同一时刻只会被一个线程使用
     public PageInfo select(int spaceSize) {
-        lock.lock();
-        try {
-            // 算出区间号
-            // me:按照剩余的空闲空间大小算区间号
-            int number = spaceSize / THRESHOLD;
-            if(number < INTERVALS_NO) number ++;
-            while(number <= INTERVALS_NO) {
-                if(lists[number].size() == 0) {
-                    number ++;
-                    continue;
+        // 算出区间号
+        // me:按照剩余的空闲空间大小算区间号
+        int number = spaceSize / threshold;
+        if(number < INTERVALS_NO) number ++;
+        while(number <= INTERVALS_NO) {
+            // 返回的 PageInfo 中包含页号和空闲空间大小的信息。
+            PageInfo pi = lists[number].pollFirst();
+            if(pi != null) {
+                return pi;
+            }
+            number ++;
+        }
+        return null;
+    }
+
+    /**
+     * 和 select 一样，但优先返回满足 preferred 的页面（例如已经在缓冲池中的页面）
+     * 最多查看 MAX_PROBE 个候选页面，都不满足时返回第一个候选，其余候选放回队尾
+     */
+    public PageInfo select(int spaceSize, IntPredicate preferred) {
+        int number = spaceSize / threshold;
+        if(number < INTERVALS_NO) number ++;
+        PageInfo first = null;
+        List<PageInfo> skipped = new ArrayList<>();
+        int probes = 0;
+        while(number <= INTERVALS_NO && probes < MAX_PROBE) {
+            PageInfo pi = lists[number].pollFirst();
+            if(pi == null) {
+                number ++;
+                continue;
+            }
+            probes ++;
+            if(preferred.test(pi.pgno)) {
+                if(first != null) {
+                    skipped.add(first);
                 }
-                // 返回的 PageInfo 中包含页号和空闲空间大小的信息。
-                return lists[number].remove(0);
+                first = pi;
+                break;
             }
-            return null;
-        } finally {
-            lock.unlock();
+            if(first == null) {
+                first = pi;
+            } else {
+                skipped.add(pi);
+            }
+        }
+        for(PageInfo pi : skipped) {
+            lists[pi.freeSpace / threshold].offerLast(pi);
         }
+        return first;
     }
 
 }
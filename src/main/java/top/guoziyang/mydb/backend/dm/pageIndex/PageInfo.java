@@ -3,6 +3,10 @@ package top.guoziyang.mydb.backend.dm.pageIndex;
 public class PageInfo {
     public int pgno;
     public int freeSpace;
+    // 是否是某个线程的当前页，当前页不在 PageIndex 中
+    public boolean held;
+    // 作为当前页最近一次被使用的时间
+    public volatile long lastUsed;
 
     public PageInfo(int pgno, int freeSpace) {
         // 页号
@@ -20,9 +20,11 @@ public class BPlusTree {
     long bootUid;
     DataItem bootDataItem;
     Lock bootLock;
+    // 节点最多有 2*balanceNumber 个关键字，由数据库的页面大小决定
+    int balanceNumber;
 
     public static long create(DataManager dm) throws Exception {
-        byte[] rawRoot = Node.newNilRootRaw();
+        byte[] rawRoot = Node.newNilRootRaw(Node.balanceNumber(dm.getPageSize()));
         long rootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rawRoot);
         return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
     }
@@ -35,6 +37,7 @@ public class BPlusTree {
         t.dm = dm;
         t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
+        t.balanceNumber = Node.balanceNumber(dm.getPageSize());
         return t;
     }
 
@@ -52,7 +55,7 @@ public class BPlusTree {
     private void updateRootUid(long left, long right, long rightKey) throws Exception {
         bootLock.lock();
         try {
-            byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
+            byte[] rootRaw = Node.newRootRaw(balanceNumber, left, right, rightKey);
             long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
             bootDataItem.before();
             SubArray diRaw = bootDataItem.data();
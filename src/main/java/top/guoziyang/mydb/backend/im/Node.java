@@ -27,12 +27,19 @@ public class Node {
     // me:Son0开始位置
     static final int NODE_HEADER_SIZE = SIBLING_OFFSET+8;
 
-    // me:一个节点最多有32个关键字
-    static final int BALANCE_NUMBER = 32;
+    // 节点的大小随页面大小变化：8K 的页面 BALANCE_NUMBER 为 32，一页大约放下 7 个节点，
+    // 页面更大时一个节点放下更多的关键字，树更矮。同一个数据库的页面大小固定，所有节点一样大
+    // me:一个节点最多有2*BALANCE_NUMBER个关键字
+    static int balanceNumber(int pageSize) {
+        return pageSize / 256;
+    }
+
     // me:作者没解释下面怎么算,我认为是有BALANCE_NUMBER个key(包括keyN),一对一对应一个Son,(BALANCE_NUMBER+key的个数)=BALANCE_NUMBER
     // me:BALANCE_NUMBER和key各占16B,因此有(2*8)*(BALANCE_NUMBER*2),但为什么要+2呢,暂时不知道的┭┮﹏┭┮
     // me:有人说是为了在满了的时候将多出来的那个缓存一下，之后再分裂
-    static final int NODE_SIZE = NODE_HEADER_SIZE + (2*8)*(BALANCE_NUMBER*2+2);
+    static int nodeSize(int balanceNumber) {
+        return NODE_HEADER_SIZE + (2*8)*(balanceNumber*2+2);
+    }
 
     BPlusTree tree;
     DataItem dataItem;
@@ -94,7 +101,7 @@ public class Node {
 
     static void shiftRawKth(SubArray raw, int kth) {
         int begin = raw.start+NODE_HEADER_SIZE+(kth+1)*(8*2);
-        int end = raw.start+NODE_SIZE-1;
+        int end = raw.end-1;
         for(int i = end; i >= begin; i --) {
             raw.raw[i] = raw.raw[i-(8*2)];
         }
@@ -102,8 +109,9 @@ public class Node {
 
     // 于是生成一个根节点的数据可以写成如下:
     // me:这个left,right
-    static byte[] newRootRaw(long left, long right, long key)  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newRootRaw(int balanceNumber, long left, long right, long key)  {
+        int size = nodeSize(balanceNumber);
+        SubArray raw = new SubArray(new byte[size], 0, size);
         // 跟结点不是叶子结点
         setRawIsLeaf(raw, false);
         // 该根节点的初始两个子节点为 left 和 right, 初始键值为 key。
@@ -118,8 +126,9 @@ public class Node {
         return raw.raw;
     }
 
-    static byte[] newNilRootRaw()  {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+    static byte[] newNilRootRaw(int balanceNumber)  {
+        int size = nodeSize(balanceNumber);
+        SubArray raw = new SubArray(new byte[size], 0, size);
 
         setRawIsLeaf(raw, true);
         setRawNoKeys(raw, 0);
@@ -299,7 +308,7 @@ public class Node {
     // me:判断插入结点后是否需要进行分裂
     // me:其实就是(KeyNumber=2*BALANCE_NUMBER)
     private boolean needSplit() {
-        return BALANCE_NUMBER*2 == getRawNoKeys(raw);
+        return tree.balanceNumber*2 == getRawNoKeys(raw);
     }
 
     class SplitRes {
@@ -307,20 +316,22 @@ public class Node {
     }
 
     private SplitRes split() throws Exception {
-        SubArray nodeRaw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
+        int balance = tree.balanceNumber;
+        int size = nodeSize(balance);
+        SubArray nodeRaw = new SubArray(new byte[size], 0, size);
         // 将当前节点是否是叶子节点的信息复制给新节点
         setRawIsLeaf(nodeRaw, getRawIfLeaf(raw));
         // 将当前节点是否是叶子节点的信息复制给新节点
-        setRawNoKeys(nodeRaw, BALANCE_NUMBER);
+        setRawNoKeys(nodeRaw, balance);
         // 设置新节点的兄弟指针为当前节点的兄弟指针（用于维护叶子链表结构）
         setRawSibling(nodeRaw, getRawSibling(raw));
         // 从当前节点的第BALANCE_NUMBER个键开始，把第BALANCE_NUMBER+1个键复制到新节点中
         // me:很奇怪很奇怪,看了好久好久
-        // me:看起来它插入了最新关键字之后有BALANCE_NUMBER+1个键,这也解释了为什么NODE_SIZE最后要+2
+        // me:看起来它插入了最新关键字之后有BALANCE_NUMBER+1个键,这也解释了为什么nodeSize最后要+2
         // me:他应该是把结点[1,BALANCE_NUMBER]和[BALANCE_NUMBER+1]这两个部分,而不是像经典算法中均分成两段
-        copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
+        copyRawFromKth(raw, nodeRaw, balance);
         long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
-        setRawNoKeys(raw, BALANCE_NUMBER);
+        setRawNoKeys(raw, balance);
         setRawSibling(raw, son);
 
         SplitRes res = new SplitRes();
@@ -157,17 +157,26 @@ public class Parser {
             throw Error.InvalidCommandException;
         }
 
+        // 多行之间用逗号隔开，引号中的逗号仍是值
+        List<String[]> rows = new ArrayList<>();
         List<String> values = new ArrayList<>();
         while(true) {
             tokenizer.pop();
             String value = tokenizer.peek();
-            if("".equals(value)) {
-                break;
+            if("".equals(value) || ",".equals(value) && !tokenizer.isQuoted()) {
+                if(values.isEmpty()) {
+                    throw Error.InvalidCommandException;
+                }
+                rows.add(values.toArray(new String[values.size()]));
+                values.clear();
+                if("".equals(value)) {
+                    break;
+                }
             } else {
                 values.add(value);
             }
         }
-        insert.values = values.toArray(new String[values.size()]);
+        insert.values = rows.toArray(new String[rows.size()][]);
 
         return insert;
     }
@@ -7,6 +7,8 @@ public class Tokenizer {
     private int pos;
     private String currentToken;
     private boolean flushToken;
+    // 当前 token 是否是引号括起来的字符串，用来区分值 ',' 和分隔符 ,
+    private boolean quoted;
     private Exception err;
 
     public Tokenizer(byte[] stat) {
@@ -38,6 +40,11 @@ public class Tokenizer {
         flushToken = true;
     }
 
+    public boolean isQuoted() throws Exception {
+        peek();
+        return quoted;
+    }
+
     public byte[] errStat() {
         byte[] res = new byte[stat.length+3];
         System.arraycopy(stat, 0, res, 0, pos);
@@ -68,6 +75,7 @@ public class Tokenizer {
     }
 
     private String nextMetaState() throws Exception {
+        quoted = false;
         while(true) {
             Byte b = peekByte();
             if(b == null) {
@@ -83,6 +91,7 @@ public class Tokenizer {
             popByte();
             return new String(new byte[]{b});
         } else if(b == '"' || b == '\'') {
+            quoted = true;
             return nextQuoteState();
         } else if(isAlphaBeta(b) || isDigit(b)) {
             return nextTokenState();
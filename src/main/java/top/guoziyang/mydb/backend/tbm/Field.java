@@ -5,6 +5,7 @@ import java.util.List;
 
 import com.google.common.primitives.Bytes;
 
+import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.im.BPlusTree;
 import top.guoziyang.mydb.backend.parser.statement.SingleExpression;
 import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
@@ -18,8 +19,24 @@ import top.guoziyang.mydb.common.Error;
  * 二进制格式为：
  * [FieldName][TypeName][IndexUid]
  * 如果field无索引，IndexUid为0
+ *
+ * string 类型的值超过页面大小的 1/4 时存到溢出页链中，行内只存
+ * [-1][OverflowUid]，读取时只有被投影到的列才去取回
  */
 public class Field {
+    // 超过页面大小的 1/OVERFLOW_FRACTION 的字符串存到溢出页
+    static final int OVERFLOW_FRACTION = 4;
+    private static final int OVERFLOW_MARK = -1;
+
+    // 尚未取回的溢出值
+    static class Overflow {
+        long uid;
+
+        Overflow(long uid) {
+            this.uid = uid;
+        }
+    }
+
     // me:这个属性的数据项id
     long uid;
     // me:这个属性属于哪个表
@@ -160,6 +177,34 @@ public class Field {
         return raw;
     }
 
+    // 写入行时使用，过长的字符串先写入溢出页，没取回过的溢出值直接沿用原来的链
+    public byte[] value2Raw(long xid, Object v) throws Exception {
+        if(v instanceof Overflow) {
+            return overflowRaw(((Overflow)v).uid);
+        }
+        if("string".equals(fieldType)) {
+            byte[] bytes = ((String)v).getBytes();
+            DataManager dm = ((TableManagerImpl)tb.tbm).dm;
+            if(bytes.length > dm.getPageSize() / OVERFLOW_FRACTION) {
+                long uid = dm.insertOverflow(xid, bytes);
+                return overflowRaw(uid);
+            }
+        }
+        return value2Raw(v);
+    }
+
+    private static byte[] overflowRaw(long uid) {
+        return Bytes.concat(Parser.int2Byte(OVERFLOW_MARK), Parser.long2Byte(uid));
+    }
+
+    // 溢出值在这里才真正从溢出页中读出
+    public Object resolveValue(Object v) throws Exception {
+        if(v instanceof Overflow) {
+            return new String(((TableManagerImpl)tb.tbm).dm.readOverflow(((Overflow)v).uid));
+        }
+        return v;
+    }
+
     class ParseValueRes {
         Object v;
         int shift;
@@ -177,6 +222,11 @@ public class Field {
                 res.shift = 8;
                 break;
             case "string":
+                if(Parser.parseInt(Arrays.copyOf(raw, 4)) == OVERFLOW_MARK) {
+                    res.v = new Overflow(Parser.parseLong(Arrays.copyOfRange(raw, 4, 12)));
+                    res.shift = 12;
+                    break;
+                }
                 ParseStringRes r = Parser.parseString(raw);
                 res.v = r.str;
                 res.shift = r.next;
@@ -2,6 +2,7 @@ package top.guoziyang.mydb.backend.tbm;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -143,7 +144,13 @@ public class Table {
 
             Map<String, Object> entry = parseEntry(raw);
             entry.put(fd.fieldName, value);
-            raw = entry2Raw(entry);
+            // 只取回需要重建索引的溢出值，其余的溢出值新行直接沿用
+            for (Field field : fields) {
+                if(field.isIndexed()) {
+                    entry.put(field.fieldName, field.resolveValue(entry.get(field.fieldName)));
+                }
+            }
+            raw = entry2Raw(xid, entry);
             long uuid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
             
             count ++;
@@ -158,25 +165,42 @@ public class Table {
     }
 
     public String read(long xid, Select read) throws Exception {
+        List<Field> projected = projectFields(read.fields);
         List<Long> uids = parseWhere(read.where);
         StringBuilder sb = new StringBuilder();
         for (Long uid : uids) {
             byte[] raw = ((TableManagerImpl)tbm).vm.read(xid, uid);
             if(raw == null) continue;
             Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry)).append("\n");
+            for (Field field : projected) {
+                entry.put(field.fieldName, field.resolveValue(entry.get(field.fieldName)));
+            }
+            sb.append(printEntry(entry, projected)).append("\n");
         }
         return sb.toString();
     }
 
+    // 多行插入走 VM 的批量插入，数据尽量挤在同一页，每页只记一条日志
     public void insert(long xid, Insert insert) throws Exception {
-        Map<String, Object> entry = string2Entry(insert.values);
-        byte[] raw = entry2Raw(entry);
-        long uid = ((TableManagerImpl)tbm).vm.insert(xid, raw);
-        for (Field field : fields) {
-            if(field.isIndexed()) {
-                // me:按照b+树的索引把最新数据uid插入到对应的位置中
-                field.insert(entry.get(field.fieldName), uid);
+        List<Map<String, Object>> entries = new ArrayList<>(insert.values.length);
+        List<byte[]> raws = new ArrayList<>(insert.values.length);
+        for (String[] values : insert.values) {
+            Map<String, Object> entry = string2Entry(values);
+            entries.add(entry);
+            raws.add(entry2Raw(xid, entry));
+        }
+        List<Long> uids;
+        if(raws.size() == 1) {
+            uids = Collections.singletonList(((TableManagerImpl)tbm).vm.insert(xid, raws.get(0)));
+        } else {
+            uids = ((TableManagerImpl)tbm).vm.insertBatch(xid, raws);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            for (Field field : fields) {
+                if(field.isIndexed()) {
+                    // me:按照b+树的索引把最新数据uid插入到对应的位置中
+                    field.insert(entries.get(i).get(field.fieldName), uids.get(i));
+                }
             }
         }
     }
@@ -270,12 +294,34 @@ public class Table {
         return res;
     }
 
-    private String printEntry(Map<String, Object> entry) {
+    // select 的列，"*" 为全部列
+    private List<Field> projectFields(String[] names) throws Exception {
+        if(names == null || (names.length == 1 && "*".equals(names[0]))) {
+            return fields;
+        }
+        List<Field> projected = new ArrayList<>();
+        for (String name : names) {
+            Field fd = null;
+            for (Field field : fields) {
+                if(field.fieldName.equals(name)) {
+                    fd = field;
+                    break;
+                }
+            }
+            if(fd == null) {
+                throw Error.FieldNotFoundException;
+            }
+            projected.add(fd);
+        }
+        return projected;
+    }
+
+    private String printEntry(Map<String, Object> entry, List<Field> projected) {
         StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < fields.size(); i++) {
-            Field field = fields.get(i);
+        for (int i = 0; i < projected.size(); i++) {
+            Field field = projected.get(i);
             sb.append(field.printValue(entry.get(field.fieldName)));
-            if(i == fields.size()-1) {
+            if(i == projected.size()-1) {
                 sb.append("]");
             } else {
                 sb.append(", ");
@@ -284,6 +330,7 @@ public class Table {
         return sb.toString();
     }
 
+    // 溢出的 string 值解析为 Field.Overflow，用到时再通过 Field.resolveValue 取回
     private Map<String, Object> parseEntry(byte[] raw) {
         int pos = 0;
         Map<String, Object> entry = new HashMap<>();
@@ -295,10 +342,10 @@ public class Table {
         return entry;
     }
 
-    private byte[] entry2Raw(Map<String, Object> entry) {
+    private byte[] entry2Raw(long xid, Map<String, Object> entry) throws Exception {
         byte[] raw = new byte[0];
         for (Field field : fields) {
-            raw = Bytes.concat(raw, field.value2Raw(entry.get(field.fieldName)));
+            raw = Bytes.concat(raw, field.value2Raw(xid, entry.get(field.fieldName)));
         }
         return raw;
     }
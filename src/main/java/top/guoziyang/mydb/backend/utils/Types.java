@@ -1,9 +1,10 @@
-package top.guoziyang.mydb.backend.utils;
-
-public class Types {
-    public static long addressToUid(int pgno, short offset) {
-        long u0 = (long)pgno;
-        long u1 = (long)offset;
-        return u0 << 32 | u1;
-    }
-}
+package top.guoziyang.mydb.backend.utils;
+
+public class Types {
+    // UID的结构是[pgno(32 bits)][slotRef(32 bits)]，slotRef 见 PageX
+    public static long addressToUid(int pgno, int slotRef) {
+        long u0 = (long)pgno;
+        long u1 = slotRef & 0xFFFFFFFFL;
+        return u0 << 32 | u1;
+    }
+}
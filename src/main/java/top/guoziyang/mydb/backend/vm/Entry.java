@@ -6,6 +6,7 @@ import com.google.common.primitives.Bytes;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.tm.TransactionManagerImpl;
 import top.guoziyang.mydb.backend.utils.Parser;
 
 // 一条记录存储在一条 Data Item 中，所以 Entry 中保存一个 DataItem 的引用即可:
@@ -106,6 +107,21 @@ public class Entry {
         }
     }
 
+    // 这个版本已经对谁都不可见了，把它的 DataItem 置为无效，所在页整理时回收空间。
+    // 置无效以超级事务的名义记日志，恢复时总会重做
+    public void purge() {
+        SubArray raw = dataItem.getRaw();
+        if(raw.raw[raw.start] != (byte)0) {
+            return;
+        }
+        dataItem.before();
+        try {
+            DataItem.setDataItemRawInvalid(raw);
+        } finally {
+            dataItem.after(TransactionManagerImpl.SUPER_XID);
+        }
+    }
+
     public long getUid() {
         return uid;
     }
@@ -1,13 +1,13 @@
 package top.guoziyang.mydb.backend.vm;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import top.guoziyang.mydb.backend.common.LongIntMap;
+import top.guoziyang.mydb.backend.common.LongObjectMap;
 import top.guoziyang.mydb.common.Error;
 
 /**
@@ -15,21 +15,21 @@ import top.guoziyang.mydb.common.Error;
  */
 public class LockTable {
     // me:key是XID,value是这个XID是获得的UID列表
-    private Map<Long, List<Long>> x2u;  // 某个XID已经获得的资源的UID列表
+    private LongObjectMap<List<Long>> x2u;  // 某个XID已经获得的资源的UID列表
     // me:key是UID,value是这个UID被某个XID所持有
-    private Map<Long, Long> u2x;        // UID被某个XID持有
-    private Map<Long, List<Long>> wait; // 正在等待UID的XID列表
-    private Map<Long, Lock> waitLock;   // 正在等待资源的XID的锁
+    private LongObjectMap<Long> u2x;        // UID被某个XID持有
+    private LongObjectMap<List<Long>> wait; // 正在等待UID的XID列表
+    private LongObjectMap<Lock> waitLock;   // 正在等待资源的XID的锁
     // me:key是XID,value是这个XID正在等待的UID列表
-    private Map<Long, Long> waitU;      // XID正在等待的UID
+    private LongObjectMap<Long> waitU;      // XID正在等待的UID
     private Lock lock;
 
     public LockTable() {
-        x2u = new HashMap<>();
-        u2x = new HashMap<>();
-        wait = new HashMap<>();
-        waitLock = new HashMap<>();
-        waitU = new HashMap<>();
+        x2u = new LongObjectMap<>();
+        u2x = new LongObjectMap<>();
+        wait = new LongObjectMap<>();
+        waitLock = new LongObjectMap<>();
+        waitU = new LongObjectMap<>();
         lock = new ReentrantLock();
     }
 
@@ -119,15 +119,15 @@ public class LockTable {
         if(l.size() == 0) wait.remove(uid);
     }
 
-    private Map<Long, Integer> xidStamp;
+    private LongIntMap xidStamp;
     private int stamp;
 
     private boolean hasDeadLock() {
-        xidStamp = new HashMap<>();
+        xidStamp = new LongIntMap();
         stamp = 1;
-        for(long xid : x2u.keySet()) {
-            Integer s = xidStamp.get(xid);
-            if(s != null && s > 0) {
+        for(long xid : x2u.keys()) {
+            // me:0 表示还没访问过
+            if(xidStamp.get(xid, 0) > 0) {
                 continue;
             }
             stamp ++;
@@ -139,11 +139,11 @@ public class LockTable {
     }
 
     private boolean dfs(long xid) {
-        Integer stp = xidStamp.get(xid);
-        if(stp != null && stp == stamp) {
+        int stp = xidStamp.get(xid, 0);
+        if(stp == stamp) {
             return true;
         }
-        if(stp != null && stp < stamp) {
+        if(stp != 0 && stp < stamp) {
             return false;
         }
         // me:记录当前节点的访问时间戳为当前的 stamp
@@ -159,7 +159,7 @@ public class LockTable {
         return dfs(x);
     }
 
-    private void removeFromList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
+    private void removeFromList(LongObjectMap<List<Long>> listMap, long uid0, long uid1) {
         List<Long> l = listMap.get(uid0);
         if(l == null) return;
         Iterator<Long> i = l.iterator();
@@ -175,14 +175,14 @@ public class LockTable {
         }
     }
 
-    private void putIntoList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
+    private void putIntoList(LongObjectMap<List<Long>> listMap, long uid0, long uid1) {
         if(!listMap.containsKey(uid0)) {
             listMap.put(uid0, new ArrayList<>());
         }
         listMap.get(uid0).add(0, uid1);
     }
 
-    private boolean isInList(Map<Long, List<Long>> listMap, long uid0, long uid1) {
+    private boolean isInList(LongObjectMap<List<Long>> listMap, long uid0, long uid1) {
         List<Long> l = listMap.get(uid0);
         // me:这个事务没有拥有任何资源
         if(l == null) return false;
@@ -1,11 +1,14 @@
 package top.guoziyang.mydb.backend.vm;
 
+import java.util.List;
+
 import top.guoziyang.mydb.backend.dm.DataManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 
 public interface VersionManager {
     byte[] read(long xid, long uid) throws Exception;
     long insert(long xid, byte[] data) throws Exception;
+    List<Long> insertBatch(long xid, List<byte[]> data) throws Exception;
     boolean delete(long xid, long uid) throws Exception;
 
     long begin(int level);
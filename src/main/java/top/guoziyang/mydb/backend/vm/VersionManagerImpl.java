@@ -1,6 +1,8 @@
 package top.guoziyang.mydb.backend.vm;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -56,6 +58,10 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             if(Visibility.isVisible(tm, t, entry)) {
                 return entry.data();
             } else {
+                // 顺便清理已经死掉的版本。Table.update 是删除加插入，旧版本会经由索引被读到，在这里被回收
+                if(isDead(entry)) {
+                    entry.purge();
+                }
                 return null;
             }
         } finally {
@@ -77,6 +83,24 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         return dm.insert(xid, raw);
     }
 
+    // 批量插入，每条数据同样包装成 Entry，交给 DM 一起写入
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+
+        if(t.err != null) {
+            throw t.err;
+        }
+
+        List<byte[]> raws = new ArrayList<>(data.size());
+        for (byte[] d : data) {
+            raws.add(Entry.wrapEntryRaw(xid, d));
+        }
+        return dm.insertBatch(xid, raws);
+    }
+
     @Override
     public boolean delete(long xid, long uid) throws Exception {
         lock.lock();
@@ -190,6 +214,15 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         tm.abort(xid);
     }
 
+    private boolean isDead(Entry entry) {
+        lock.lock();
+        try {
+            return Visibility.isDead(tm, activeTransaction.values(), entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void releaseEntry(Entry entry) {
         super.release(entry.getUid());
     }
@@ -1,5 +1,7 @@
 package top.guoziyang.mydb.backend.vm;
 
+import java.util.Collection;
+
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 
 public class Visibility {
@@ -72,4 +74,23 @@ public class Visibility {
         return false;
     }
 
+    // 版本对所有事务都不可见，以后也不会再可见：
+    // 创建它的事务已经回滚；或者删除它的事务已经提交，而且所有活跃的可重复读事务都是在它提交之后才开始的
+    // 调用方持有 active 所在的锁
+    public static boolean isDead(TransactionManager tm, Collection<Transaction> active, Entry e) {
+        if(tm.isAborted(e.getXmin())) {
+            return true;
+        }
+        long xmax = e.getXmax();
+        if(xmax == 0 || !tm.isCommitted(xmax)) {
+            return false;
+        }
+        for(Transaction t : active) {
+            if(t.level != 0 && (xmax > t.xid || t.isInSnapshot(xmax))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
@@ -12,6 +12,13 @@ public class Error {
     public static final Exception MemTooSmallException = new RuntimeException("Memory too small!");
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
+    public static final Exception InvalidIOModeException = new RuntimeException("Invalid io mode!");
+    public static final Exception DirectIONotSupportedException = new RuntimeException("Direct io not supported!");
+    public static final Exception InvalidPageSizeException = new RuntimeException("Invalid page size!");
+    public static final Exception UnsupportedDatabaseException = new RuntimeException("Database created by an unsupported version!");
+    public static final Exception BadMapFileException = new RuntimeException("Bad page map file!");
+    public static final Exception BadCompressedPageException = new RuntimeException("Bad compressed page!");
+    public static final Exception InvalidLogSegmentSizeException = new RuntimeException("Invalid log segment size!");
 
     // tm
     public static final Exception BadXIDFileException = new RuntimeException("Bad XID file!");
@@ -0,0 +1,29 @@
+package top.guoziyang.mydb.backend.common;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+    @Test
+    public void testBufferPool() {
+        BufferPool pool = new BufferPool();
+        byte[] a = pool.take(10);
+        assert a.length == 16;
+        byte[] b = pool.take(100);
+        assert b.length == 128;
+        pool.give(b);
+        // 同一级的请求复用归还的数组
+        assert pool.take(65) == b;
+        assert pool.take(128) != b;
+
+        // 超过最大一级的直接分配，归还后不缓存
+        byte[] big = pool.take(100000);
+        assert big.length == 100000;
+        pool.give(big);
+        assert pool.take(100000) != big;
+
+        // 不是本池分出的数组不收
+        byte[] odd = new byte[100];
+        pool.give(odd);
+        assert pool.take(100) != odd;
+    }
+}
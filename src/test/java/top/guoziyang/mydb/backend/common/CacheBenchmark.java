@@ -0,0 +1,72 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * AbstractCache 的 get/release 吞吐量测试，对比单段与分段缓存在不同线程数下的表现
+ * 运行 main 即可，不属于单元测试
+ */
+public class CacheBenchmark {
+
+    // 工作集大小，全部能放进缓存，测的是命中路径上的锁竞争
+    private static final int KEYS = 4096;
+    private static final int OPS_PER_THREAD = 2_000_000;
+
+    static class BenchCache extends AbstractCache<Long> {
+        BenchCache(int maxResource, int segments) {
+            super(maxResource, segments);
+        }
+
+        @Override
+        protected Long getForCache(long key) throws Exception {
+            return key;
+        }
+
+        @Override
+        protected void releaseForCache(Long obj) {}
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        System.out.println("threads\tsingle(ops/s)\tsegmented(ops/s)");
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            double single = run(new BenchCache(KEYS, 1), threads);
+            double segmented = run(new BenchCache(KEYS, 16), threads);
+            System.out.printf("%d\t%.0f\t%.0f%n", threads, single, segmented);
+        }
+    }
+
+    private static double run(BenchCache cache, int threads) throws Exception {
+        // 预热，把所有 key 放入缓存
+        for(long k = 0; k < KEYS; k ++) {
+            cache.get(k);
+            cache.release(k);
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            long seed = t;
+            new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    start.await();
+                    for(int i = 0; i < OPS_PER_THREAD; i ++) {
+                        long k = r.nextInt(KEYS);
+                        cache.get(k);
+                        cache.release(k);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long cost = System.nanoTime() - begin;
+        return (double)threads * OPS_PER_THREAD / cost * 1e9;
+    }
+}
@@ -3,6 +3,8 @@ package top.guoziyang.mydb.backend.common;
 import java.security.SecureRandom;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
@@ -31,6 +33,135 @@ public class CacheTest {
         }
     }
 
+    @Test
+    public void testCacheResident() throws Exception {
+        MockCache c = new MockCache();
+        for(long i = 0; i < 50; i ++) {
+            c.get(i);
+            c.release(i);
+        }
+        // 引用归零后仍然留在缓存中
+        for(long i = 0; i < 50; i ++) {
+            assert c.get(i) == i;
+            c.release(i);
+        }
+        assert c.getMissCount() == 50;
+        assert c.getHitCount() == 50;
+
+        // 缓存已满时驱逐未被引用的资源
+        for(long i = 50; i < 100; i ++) {
+            assert c.get(i) == i;
+            c.release(i);
+        }
+        assert c.getMissCount() == 100;
+    }
+
+    @Test
+    public void testCacheCoalesce() throws Exception {
+        AtomicInteger loads = new AtomicInteger(0);
+        AbstractCache<Long> c = new AbstractCache<Long>(0) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                Thread.sleep(100);
+                if(key < 0) {
+                    throw Error.NullEntryException;
+                }
+                loads.incrementAndGet();
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {}
+        };
+        int workers = 10;
+        CountDownLatch done = new CountDownLatch(workers);
+        AtomicInteger errors = new AtomicInteger(0);
+        for(int i = 0; i < workers; i ++) {
+            new Thread(() -> {
+                try {
+                    assert c.get(7) == 7;
+                    c.get(-7);
+                } catch (Exception e) {
+                    if(e == Error.NullEntryException) errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        // 所有线程都持有 key 7，只会获取一次；获取失败也会传给所有等待者
+        assert loads.get() == 1;
+        assert errors.get() == workers;
+        for(int i = 0; i < workers; i ++) {
+            c.release(7);
+        }
+    }
+
+    @Test
+    public void testCacheEvictOutsideLock() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicLong victim = new AtomicLong(-1);
+        AtomicInteger staleLoads = new AtomicInteger(0);
+        AbstractCache<Long> c = new AbstractCache<Long>(2, 1) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                // 被驱逐的资源写回完成之前不能重新获取
+                if(key == victim.get() && resume.getCount() > 0) {
+                    staleLoads.incrementAndGet();
+                }
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {
+                // 第一次驱逐时写回很慢
+                if(victim.compareAndSet(-1, obj)) {
+                    writing.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Panic.panic(e);
+                    }
+                }
+            }
+        };
+        for(long i = 1; i <= 2; i ++) {
+            c.get(i);
+            c.release(i);
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                c.get(3);
+                c.release(3);
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        });
+        loader.start();
+        writing.await();
+
+        // 写回期间段锁没有被占用，另一个资源照常命中
+        long other = 3 - victim.get();
+        assert c.get(other) == other;
+        c.release(other);
+        Thread reloader = new Thread(() -> {
+            try {
+                c.get(victim.get());
+                c.release(victim.get());
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        });
+        reloader.start();
+        Thread.sleep(100);
+        resume.countDown();
+        loader.join();
+        reloader.join();
+        assert staleLoads.get() == 0;
+        assert c.isCached(victim.get());
+    }
+
     private void work() {
         for(int i = 0; i < 1000; i++) {
             long uid = random.nextInt();
@@ -0,0 +1,48 @@
+package top.guoziyang.mydb.backend.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongMapTest {
+
+    @Test
+    public void testLongMaps() {
+        Random random = new Random(13331);
+        LongObjectMap<Long> om = new LongObjectMap<>();
+        LongIntMap im = new LongIntMap();
+        Map<Long, Integer> expect = new HashMap<>();
+        for(int i = 0; i < 200000; i ++) {
+            // key 范围小，保证有大量的覆盖和删除，也会删到探测链中间的元素
+            long key = random.nextInt(2000) - 1000;
+            int op = random.nextInt(3);
+            if(op == 0) {
+                int v = random.nextInt();
+                om.put(key, (long)v);
+                im.put(key, v);
+                expect.put(key, v);
+            } else if(op == 1) {
+                Integer v = expect.remove(key);
+                Long ov = om.remove(key);
+                assert v == null ? ov == null : ov == (long)v;
+                assert im.remove(key) == (v != null);
+            } else {
+                Integer v = expect.get(key);
+                assert om.containsKey(key) == (v != null);
+                assert im.containsKey(key) == (v != null);
+                if(v != null) {
+                    assert om.get(key) == (long)v;
+                    assert im.get(key, -1) == v;
+                }
+            }
+            assert om.size() == expect.size();
+            assert im.size() == expect.size();
+        }
+        assert om.keys().length == expect.size();
+        for(long key : im.keys()) {
+            assert expect.containsKey(key);
+        }
+    }
+}
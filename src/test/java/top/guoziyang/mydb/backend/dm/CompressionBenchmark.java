@@ -0,0 +1,107 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.pageCache.CompressedPageFile;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 压缩存储的压缩率与扫描吞吐量
+ * 页面是所有表共用的，同一页里可能混着几张表的记录，无法按表统计压缩率，
+ * 所以按表的典型内容分成几组数据，每组单独建库，分别在压缩、不压缩两种方式下插入 N 条记录，
+ * 重新打开后按 uid 顺序读取全部记录（缓冲池远小于数据量，读取时要从文件中读入页面）
+ * 压缩率 = 逻辑大小（页数 * 页面大小） / 实际占用（.db + .pmt）
+ * 运行 main 即可，参数为每组记录数（默认 200000）、缓冲池内存 MB（默认 4），不属于单元测试
+ */
+public class CompressionBenchmark {
+
+    private static final int SCANS = 3;
+    private static final String[] WORDS = {"order", "shipped", "pending", "customer", "north", "south", "refund", "express", "standard", "paid"};
+
+    interface RowGenerator {
+        byte[] next(Random random, int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long mem = (args.length > 1 ? Long.parseLong(args[1]) : 4) << 20;
+        System.out.println("table\tmode\tlogical KB\tdisk KB\tratio\tinsert rows/s\tscan rows/s");
+        run("numeric", rows, mem, (random, i) -> {
+            // 递增的 id、时间戳和较小的金额，8 字节定长
+            byte[] row = new byte[40];
+            putLong(row, 0, i);
+            putLong(row, 8, 1600000000000L + i * 1000L);
+            putLong(row, 16, random.nextInt(100000));
+            putLong(row, 24, random.nextInt(16));
+            putLong(row, 32, i / 100);
+            return row;
+        });
+        run("text", rows, mem, (random, i) -> {
+            // 由少量单词组成的日志、备注类文本
+            StringBuilder sb = new StringBuilder();
+            for(int w = 0; w < 12; w ++) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            return sb.toString().getBytes();
+        });
+        run("random", rows, mem, (random, i) -> RandomUtil.randomBytes(64));
+    }
+
+    private static void run(String table, int rows, long mem, RowGenerator gen) throws Exception {
+        for(boolean compress : new boolean[]{false, true}) {
+            String path = "compression_bench";
+            delete(path);
+            TransactionManager tm = new MockTransactionManager();
+            DMOptions opt = DMOptions.withMem(mem);
+            opt.compress = compress;
+            DataManager dm = DataManager.create(path, opt, tm);
+            Random random = new Random(42);
+            List<Long> uids = new ArrayList<>(rows);
+            long start = System.nanoTime();
+            for(int i = 0; i < rows; i ++) {
+                uids.add(dm.insert(0, gen.next(random, i)));
+            }
+            double insert = rows * 1e9 / (System.nanoTime() - start);
+            dm.close();
+
+            dm = DataManager.open(path, DMOptions.withMem(mem), tm);
+            uids.sort(null);
+            start = System.nanoTime();
+            for(int s = 0; s < SCANS; s ++) {
+                for(long uid : uids) {
+                    DataItem di = dm.read(uid);
+                    di.release();
+                }
+            }
+            double scan = (long)rows * SCANS * 1e9 / (System.nanoTime() - start);
+            long pages = (uids.get(uids.size() - 1) >>> 32);
+            long logical = pages * dm.getPageSize();
+            dm.close();
+
+            long disk = new File(path + ".db").length() + new File(path + CompressedPageFile.MAP_SUFFIX).length();
+            System.out.printf("%s\t%s\t%d\t%d\t%.2f\t%.0f\t%.0f%n", table, compress ? "lz4" : "raw",
+                    logical >> 10, disk >> 10, (double)logical / disk, insert, scan);
+            delete(path);
+        }
+    }
+
+    private static void putLong(byte[] buf, int pos, long v) {
+        for(int i = 7; i >= 0; i --) {
+            buf[pos + i] = (byte)v;
+            v >>>= 8;
+        }
+    }
+
+    private static void delete(String path) {
+        new File(path + ".db").delete();
+        new File(path + CompressedPageFile.MAP_SUFFIX).delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+}
@@ -0,0 +1,64 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 多线程插入的吞吐量测试，对比逐页 fsync 与后台写回脏页
+ * 缓冲池只有 64 页，插入很快就会触发驱逐写回
+ * 运行 main 即可，参数为线程数（默认 8），不属于单元测试
+ */
+public class DataManagerBenchmark {
+
+    private static final long MEM = PageCache.PAGE_SIZE * 64;
+    private static final long RUN_MS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        System.out.println("flushInterval\tinserts/s");
+        for(long interval : new long[]{0, 1000}) {
+            DMOptions opt = DMOptions.withMem(MEM);
+            opt.flushInterval = interval;
+            System.out.printf("%d\t%.0f%n", interval, run(opt, threads));
+        }
+    }
+
+    private static double run(DMOptions opt, int threads) throws Exception {
+        String path = "dm_bench";
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+        DataManager dm = DataManager.create(path, opt, new MockTransactionManager());
+
+        AtomicLong ops = new AtomicLong(0);
+        long deadline = System.currentTimeMillis() + RUN_MS;
+        CountDownLatch done = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            new Thread(() -> {
+                long n = 0;
+                try {
+                    while(System.currentTimeMillis() < deadline) {
+                        dm.insert(0, RandomUtil.randomBytes(100));
+                        n ++;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    ops.addAndGet(n);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        dm.close();
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+        return ops.get() * 1000.0 / RUN_MS;
+    }
+}
@@ -14,10 +14,16 @@ import org.junit.Test;
 
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.logger.Logger;
+import top.guoziyang.mydb.backend.dm.page.Page;
+import top.guoziyang.mydb.backend.dm.page.PageX;
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCacheImpl;
+import top.guoziyang.mydb.backend.dm.pageIndex.PageInfo;
 import top.guoziyang.mydb.backend.tm.MockTransactionManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
 
 public class DataManagerTest {
@@ -110,6 +116,272 @@ public class DataManagerTest {
 
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TESTDMSingle.db").delete();
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TESTDMSingle.log").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TESTDMSingle.fsm").delete();
+    }
+
+    @Test
+    public void testDMBackgroundFlush() throws Exception {
+        TransactionManager tm0 = new MockTransactionManager();
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE*10);
+        opt.flushInterval = 5;
+        DataManager dm0 = DataManager.create("D:\\JavaWorkspace2\\mydbDatabase\\TestDMBackgroundFlush", opt, tm0);
+        DataManager mdm = MockDataManager.newMockDataManager();
+
+        CountDownLatch cdl = new CountDownLatch(4);
+        initUids();
+        for(int i = 0; i < 4; i ++) {
+            new Thread(() -> worker(dm0, mdm, 2000, 50, cdl)).run();
+        }
+        cdl.await();
+        dm0.close();
+
+        // 关闭后脏页都已写回，重新打开不需要恢复，读到的数据与 mock 一致
+        DataManager dm1 = DataManager.open("D:\\JavaWorkspace2\\mydbDatabase\\TestDMBackgroundFlush", opt, tm0);
+        for(int i = 0; i < uids0.size(); i ++) {
+            DataItem d0 = dm1.read(uids0.get(i));
+            DataItem d1 = mdm.read(uids1.get(i));
+            SubArray s0 = d0.data(), s1 = d1.data();
+            assert Arrays.equals(Arrays.copyOfRange(s0.raw, s0.start, s0.end), Arrays.copyOfRange(s1.raw, s1.start, s1.end));
+            d0.release(); d1.release();
+        }
+        dm1.close(); mdm.close();
+
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMBackgroundFlush.db").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMBackgroundFlush.log").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMBackgroundFlush.fsm").delete();
+    }
+
+    @Test
+    public void testDMConcurrentInsert() throws Exception {
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create("D:\\JavaWorkspace2\\mydbDatabase\\TestDMConcurrentInsert", PageCache.PAGE_SIZE*50, tm0);
+        int threads = 8, perThread = 500, dataLen = 60;
+        long[][] uids = new long[threads][perThread];
+        CountDownLatch cdl = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            int id = t;
+            new Thread(() -> {
+                try {
+                    for(int i = 0; i < perThread; i ++) {
+                        byte[] data = new byte[dataLen];
+                        data[0] = (byte)id;
+                        data[1] = (byte)i;
+                        uids[id][i] = dm0.insert(0, data);
+                    }
+                } catch (Exception e) {
+                    Panic.panic(e);
+                } finally {
+                    cdl.countDown();
+                }
+            }).start();
+        }
+        cdl.await();
+
+        for(int t = 0; t < threads; t ++) {
+            for(int i = 0; i < perThread; i ++) {
+                DataItem di = dm0.read(uids[t][i]);
+                SubArray s = di.data();
+                assert s.raw[s.start] == (byte)t && s.raw[s.start+1] == (byte)i;
+                di.release();
+            }
+        }
+        // 每个线程往自己的当前页里插入，页面数不会随并发而膨胀
+        int itemsPerPage = PageX.maxFreeSpace(PageCache.PAGE_SIZE) / (dataLen + 3 + PageX.SLOT_SIZE);
+        int needed = threads * perThread / itemsPerPage + 1;
+        assert ((DataManagerImpl)dm0).pc.getPageNumber() <= 1 + needed + threads;
+        dm0.close();
+
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMConcurrentInsert.db").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMConcurrentInsert.log").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMConcurrentInsert.fsm").delete();
+    }
+
+    @Test
+    public void testDMPageIndexOnce() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMPageIndexOnce";
+        DataManagerImpl dm = (DataManagerImpl)DataManager.create(path, PageCache.PAGE_SIZE*30, new MockTransactionManager());
+        // 一个线程插入几条之后就不再插入，它的当前页闲置
+        long[] uids = new long[10];
+        Thread t = new Thread(() -> {
+            try {
+                for(int i = 0; i < uids.length; i ++) {
+                    uids[i] = dm.insert(0, new byte[60]);
+                }
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        });
+        t.start();
+        t.join();
+        int pgno = (int)(uids[0] >>> 32);
+        int pages = dm.pc.getPageNumber();
+
+        // 闲置的当前页被收回，别的线程接着用，不新建页面
+        Thread.sleep(DataManagerImpl.HELD_PAGE_IDLE_MS + 200);
+        assert (int)(dm.insert(0, new byte[60]) >>> 32) == pgno;
+        assert dm.pc.getPageNumber() == pages;
+        dm.close();
+
+        // 同一页上的 DataItem 先后被置为无效，页面每次都被放入 pIndex，但只有一项有效
+        DataManagerImpl dm1 = (DataManagerImpl)DataManager.open(path, PageCache.PAGE_SIZE*30, new MockTransactionManager());
+        for(int i = 0; i < 5; i ++) {
+            DataItem di = dm1.read(uids[i]);
+            di.before();
+            DataItem.setDataItemRawInvalid(di.getRaw());
+            di.after(0);
+            di.release();
+        }
+        int valid = 0;
+        PageInfo pi;
+        while((pi = dm1.pIndex.select(0, p -> true)) != null) {
+            if(pi.pgno == pgno && dm1.pageInfos.get(pgno) == pi) {
+                valid ++;
+            }
+        }
+        assert valid == 1;
+        dm1.close();
+
+        new File(path+".db").delete();
+        new File(path+".log").delete();
+        new File(path+".fsm").delete();
+    }
+
+    @Test
+    public void testDMInsertBatch() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMInsertBatch";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*30, tm);
+        int n = 1000, dataLen = 100;
+        List<byte[]> batch = new ArrayList<>();
+        for(int i = 0; i < n; i ++) {
+            batch.add(RandomUtil.randomBytes(dataLen));
+        }
+        long xid0 = tm.begin();
+        List<Long> committed = dm.insertBatch(xid0, batch);
+        tm.commit(xid0);
+        long xid1 = tm.begin();
+        List<Long> aborted = dm.insertBatch(xid1, batch);
+        assert committed.size() == n && aborted.size() == n;
+
+        // 一批数据挤在尽量少的页面里
+        int itemsPerPage = PageX.maxFreeSpace(PageCache.PAGE_SIZE) / (dataLen + 3 + PageX.SLOT_SIZE);
+        assert ((DataManagerImpl)dm).pc.getPageNumber() <= 1 + 2 * (n / itemsPerPage + 1);
+        for(int i = 0; i < n; i ++) {
+            DataItem di = dm.read(committed.get(i));
+            SubArray s = di.data();
+            assert Arrays.equals(Arrays.copyOfRange(s.raw, s.start, s.end), batch.get(i));
+            di.release();
+        }
+
+        // 不关闭直接重新打开，模拟崩溃：已提交的一批重做，未提交的一批整批撤销
+        dm = DataManager.open(path, PageCache.PAGE_SIZE*30, tm);
+        for(int i = 0; i < n; i ++) {
+            DataItem di = dm.read(committed.get(i));
+            SubArray s = di.data();
+            assert Arrays.equals(Arrays.copyOfRange(s.raw, s.start, s.end), batch.get(i));
+            di.release();
+            assert dm.read(aborted.get(i)) == null;
+        }
+        dm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+        new File(path + ".xid").delete();
+    }
+
+    @Test
+    public void testDMOverflow() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMOverflow";
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*10, tm);
+        byte[] big = RandomUtil.randomBytes(PageCache.PAGE_SIZE * 20 + 123);
+        byte[] small = RandomUtil.randomBytes(10);
+        long bigUid = dm.insertOverflow(0, big);
+        long smallUid = dm.insertOverflow(0, small);
+        assert Arrays.equals(dm.readOverflow(bigUid), big);
+        assert Arrays.equals(dm.readOverflow(smallUid), small);
+        dm.close();
+
+        dm = DataManager.open(path, PageCache.PAGE_SIZE*10, tm);
+        assert Arrays.equals(dm.readOverflow(bigUid), big);
+        assert Arrays.equals(dm.readOverflow(smallUid), small);
+        dm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testDMPageSize() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMPageSize";
+        int pageSize = PageCache.MAX_PAGE_SIZE;
+        TransactionManager tm = new MockTransactionManager();
+        DMOptions opt = DMOptions.withMem(pageSize*10L);
+        opt.pageSize = pageSize;
+        DataManager dm = DataManager.create(path, opt, tm);
+        // 比默认页面还大的数据也能放进一页
+        byte[] big = RandomUtil.randomBytes(PageCache.PAGE_SIZE * 2);
+        long bigUid = dm.insert(0, big);
+        List<byte[]> smalls = new ArrayList<>();
+        List<Long> smallUids = new ArrayList<>();
+        for(int i = 0; i < 100; i ++) {
+            byte[] small = RandomUtil.randomBytes(100);
+            smalls.add(small);
+            smallUids.add(dm.insert(0, small));
+        }
+        dm.close();
+
+        // 打开时不指定页面大小，以第一页中记录的为准
+        dm = DataManager.open(path, DMOptions.withMem(pageSize*10L), tm);
+        assert dm.getPageSize() == pageSize;
+        assert new File(path + ".db").length() % pageSize == 0;
+        DataItem di = dm.read(bigUid);
+        assert Arrays.equals(Arrays.copyOfRange(di.data().raw, di.data().start, di.data().end), big);
+        di.release();
+        for(int i = 0; i < smalls.size(); i ++) {
+            di = dm.read(smallUids.get(i));
+            assert Arrays.equals(Arrays.copyOfRange(di.data().raw, di.data().start, di.data().end), smalls.get(i));
+            di.release();
+        }
+        dm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testDMCompressed() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMCompressed";
+        TransactionManager tm = new MockTransactionManager();
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE*10L);
+        opt.compress = true;
+        DataManager dm = DataManager.create(path, opt, tm);
+        List<byte[]> datas = new ArrayList<>();
+        List<Long> uids = new ArrayList<>();
+        for(int i = 0; i < 2000; i ++) {
+            byte[] data = ("row " + i + " status=active region=north note=nothing to report").getBytes();
+            datas.add(data);
+            uids.add(dm.insert(0, data));
+        }
+        dm.close();
+
+        // 打开时不指定是否压缩，以第一页中记录的为准
+        dm = DataManager.open(path, DMOptions.withMem(PageCache.PAGE_SIZE*10L), tm);
+        for(int i = 0; i < datas.size(); i ++) {
+            DataItem di = dm.read(uids.get(i));
+            assert Arrays.equals(Arrays.copyOfRange(di.data().raw, di.data().start, di.data().end), datas.get(i));
+            di.release();
+        }
+        dm.close();
+        assert new File(path + ".pmt").exists();
+
+        new File(path + ".db").delete();
+        new File(path + ".pmt").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
     }
 
     @Test
@@ -130,6 +402,7 @@ public class DataManagerTest {
 
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMMulti.db").delete();
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMMulti.log").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestDMMulti.fsm").delete();
     }
 
     @Test
@@ -155,7 +428,182 @@ public class DataManagerTest {
         
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TestRecoverySimple.db").delete();
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TestRecoverySimple.log").delete();
+        new File("D:\\JavaWorkspace2\\mydbDatabase\\TestRecoverySimple.fsm").delete();
         new File("D:\\JavaWorkspace2\\mydbDatabase\\TestRecoverySimple.xid").delete();
 
     }
+
+    @Test
+    public void testDMCheckpoint() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMCheckpoint";
+        TransactionManager tm = TransactionManager.create(path);
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE*64L);
+        opt.logSegmentSize = Logger.MIN_SEGMENT_SIZE;
+        DataManager dm = DataManager.create(path, opt, tm);
+
+        // 已提交的数据写满几个日志段
+        long committed = tm.begin();
+        List<Long> committedUids = new ArrayList<>();
+        for(int i = 0; i < 30; i ++) {
+            List<byte[]> batch = new ArrayList<>();
+            for(int j = 0; j < 1000; j ++) {
+                batch.add(record(i * 1000 + j));
+            }
+            committedUids.addAll(dm.insertBatch(committed, batch));
+        }
+        tm.commit(committed);
+        long active = tm.begin();
+        long activeUid = dm.insert(active, record(-1));
+
+        assert dm.checkpoint();
+        // 检查点之前、没有活跃事务需要的日志段被回收
+        assert !new File(path + ".log").exists();
+
+        long after = tm.begin();
+        long afterUid = dm.insert(after, record(-2));
+        tm.commit(after);
+        long activeUid2 = dm.insert(active, record(-3));
+
+        // 不关闭，模拟崩溃，从检查点开始恢复
+        dm = DataManager.open(path, DMOptions.withMem(PageCache.PAGE_SIZE*64L), tm);
+        for(int i = 0; i < committedUids.size(); i += 97) {
+            assertRecord(dm, committedUids.get(i), record(i));
+        }
+        assertRecord(dm, afterUid, record(-2));
+        // 崩溃时还活跃的事务被撤销，包括检查点之前的修改
+        assert dm.read(activeUid) == null;
+        assert dm.read(activeUid2) == null;
+        assert tm.isAborted(active);
+        dm.close();
+        tm.close();
+
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        for(File f : dir.listFiles()) {
+            if(f.getName().startsWith(new File(path).getName() + ".")) {
+                f.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testDMParallelRedo() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMParallelRedo";
+        TransactionManager tm = new MockTransactionManager();
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*16L, tm);
+        List<Long> uids = new ArrayList<>();
+        for(int i = 0; i < 100; i ++) {
+            List<byte[]> batch = new ArrayList<>();
+            for(int j = 0; j < 50; j ++) {
+                batch.add(record(i * 50 + j));
+            }
+            uids.addAll(dm.insertBatch(0, batch));
+        }
+
+        // 不关闭，模拟崩溃，用 4 个线程重做
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE*16L);
+        opt.redoThreads = 4;
+        dm = DataManager.open(path, opt, tm);
+        for(int i = 0; i < uids.size(); i ++) {
+            assertRecord(dm, uids.get(i), record(i));
+        }
+        dm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testDMCrashWithExtent() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMCrashWithExtent";
+        TransactionManager tm = new MockTransactionManager();
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE*64L);
+        opt.extentSize = PageCache.PAGE_SIZE * 16L;
+        DataManager dm = DataManager.create(path, opt, tm);
+        List<Long> uids = new ArrayList<>();
+        for(int i = 0; i < 300; i ++) {
+            uids.add(dm.insert(0, record(i)));
+        }
+
+        // 不关闭，模拟崩溃。新页面只在缓冲池中初始化过，文件里的预分配空间全为 0，重做前要先初始化
+        dm = DataManager.open(path, opt, tm);
+        for(int i = 0; i < uids.size(); i ++) {
+            assertRecord(dm, uids.get(i), record(i));
+        }
+        dm.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+
+    @Test
+    public void testDMCrashFreeSpace() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestDMCrashFreeSpace";
+        TransactionManager tm = TransactionManager.create(path);
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*64L, tm);
+        long committed = tm.begin();
+        for(int i = 0; i < 20; i ++) {
+            List<byte[]> batch = new ArrayList<>();
+            for(int j = 0; j < 1000; j ++) {
+                batch.add(record(i * 1000 + j));
+            }
+            dm.insertBatch(committed, batch);
+        }
+        tm.commit(committed);
+        assert dm.checkpoint();
+
+        // 检查点之后：已提交的插入，以及崩溃时还活跃、恢复时被撤销的插入
+        long after = tm.begin();
+        for(int i = 0; i < 100; i ++) {
+            dm.insert(after, record(i));
+        }
+        tm.commit(after);
+        long active = tm.begin();
+        for(int i = 0; i < 100; i ++) {
+            dm.insert(active, record(i));
+        }
+
+        // 不关闭，模拟崩溃。只读恢复用到的页面和空闲空间表覆盖不到的页面，不扫描所有页面
+        DataManagerImpl dm1 = (DataManagerImpl)DataManager.open(path, PageCache.PAGE_SIZE*64L, tm);
+        int pageNumber = dm1.pc.getPageNumber();
+        assert pageNumber > 100;
+        assert ((PageCacheImpl)dm1.pc).getMissCount() < pageNumber / 4;
+
+        // PageIndex 中每一页的空闲空间和页面实际的空闲空间一致（表中按 1/256 页向下取整）
+        int unit = PageCache.PAGE_SIZE / 256;
+        int indexed = 0;
+        PageInfo pi;
+        while((pi = dm1.pIndex.select(0, p -> true)) != null) {
+            Page pg = dm1.pc.getPage(pi.pgno);
+            int actual = PageX.getFreeSpace(pg);
+            pg.release();
+            assert pi.freeSpace <= actual && actual - pi.freeSpace < unit;
+            indexed ++;
+        }
+        assert indexed > 0;
+        dm1.close();
+        tm.close();
+
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        for(File f : dir.listFiles()) {
+            if(f.getName().startsWith(new File(path).getName() + ".")) {
+                f.delete();
+            }
+        }
+    }
+
+    private byte[] record(int i) {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte)i);
+        System.arraycopy(Parser.int2Byte(i), 0, data, 0, 4);
+        return data;
+    }
+
+    private void assertRecord(DataManager dm, long uid, byte[] expected) throws Exception {
+        DataItem di = dm.read(uid);
+        assert di != null;
+        assert Arrays.equals(Arrays.copyOfRange(di.data().raw, di.data().start, di.data().end), expected);
+        di.release();
+    }
 }
@@ -0,0 +1,54 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 批量导入的吞吐量测试，对比逐条 insert 与不同批大小的 insertBatch
+ * 运行 main 即可，参数为记录总数（默认 20000），不属于单元测试
+ */
+public class InsertBatchBenchmark {
+
+    private static final long MEM = PageCache.PAGE_SIZE * 256;
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        System.out.println("batch\trecords/s");
+        for(int batch : new int[]{1, 10, 100, 1000}) {
+            System.out.printf("%d\t%.0f%n", batch, run(total, batch));
+        }
+    }
+
+    private static double run(int total, int batch) throws Exception {
+        String path = "batch_bench";
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+        DataManager dm = DataManager.create(path, MEM, new MockTransactionManager());
+
+        long start = System.nanoTime();
+        for(int i = 0; i < total; i += batch) {
+            if(batch == 1) {
+                dm.insert(0, RandomUtil.randomBytes(100));
+                continue;
+            }
+            List<byte[]> data = new ArrayList<>(batch);
+            for(int j = 0; j < batch; j ++) {
+                data.add(RandomUtil.randomBytes(100));
+            }
+            dm.insertBatch(0, data);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        dm.close();
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+        return total * 1e9 / elapsed;
+    }
+}
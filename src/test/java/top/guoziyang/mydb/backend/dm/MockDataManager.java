@@ -1,6 +1,9 @@
 package top.guoziyang.mydb.backend.dm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.locks.Lock;
@@ -9,6 +12,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import top.guoziyang.mydb.backend.common.SubArray;
 import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
 import top.guoziyang.mydb.backend.dm.dataItem.MockDataItem;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 
 public class MockDataManager implements DataManager {
 
@@ -51,7 +55,37 @@ public class MockDataManager implements DataManager {
         }
     }
 
+    @Override
+    public List<Long> insertBatch(long xid, List<byte[]> data) throws Exception {
+        List<Long> uids = new ArrayList<>();
+        for (byte[] d : data) {
+            uids.add(insert(xid, d));
+        }
+        return uids;
+    }
+
+    @Override
+    public long insertOverflow(long xid, byte[] data) throws Exception {
+        return insert(xid, data);
+    }
+
+    @Override
+    public byte[] readOverflow(long uid) throws Exception {
+        SubArray s = read(uid).data();
+        return Arrays.copyOfRange(s.raw, s.start, s.end);
+    }
+
+    @Override
+    public int getPageSize() {
+        return PageCache.PAGE_SIZE;
+    }
+
     @Override
     public void close() {}
+
+    @Override
+    public boolean checkpoint() {
+        return true;
+    }
     
 }
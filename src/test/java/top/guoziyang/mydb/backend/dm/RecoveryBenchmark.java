@@ -0,0 +1,86 @@
+package top.guoziyang.mydb.backend.dm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 崩溃恢复时间与重做线程数的关系
+ * 先批量插入生成一份较大的日志，不关闭 DataManager（模拟崩溃），把数据文件和日志另存一份；
+ * 之后每种线程数都从这份副本重新打开，打开时执行恢复，统计打开所用的时间。
+ * 副本刚写过，数据文件和日志都在操作系统的页缓存中，测的主要是重做的 CPU 开销。
+ * 运行 main 即可，参数为插入的记录数（默认 500000），不属于单元测试
+ */
+public class RecoveryBenchmark {
+
+    private static final String PATH = "recovery_bench";
+    private static final String SNAPSHOT = "recovery_bench_snapshot";
+    private static final long MEM = PageCache.PAGE_SIZE * 2048;
+    private static final int BATCH = 10;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        delete(PATH);
+        delete(SNAPSHOT);
+
+        DataManager dm = DataManager.create(PATH, MEM, new MockTransactionManager());
+        for(int i = 0; i < total; i += BATCH) {
+            List<byte[]> data = new ArrayList<>(BATCH);
+            for(int j = 0; j < BATCH; j ++) {
+                data.add(RandomUtil.randomBytes(100));
+            }
+            dm.insertBatch(0, data);
+        }
+        copy(PATH, SNAPSHOT);
+        System.out.printf("log %d MB%n", size(SNAPSHOT + ".log") >> 20);
+
+        System.out.println("threads\trecovery ms");
+        for(int threads : THREADS) {
+            delete(PATH);
+            copy(SNAPSHOT, PATH);
+            DMOptions opt = DMOptions.withMem(MEM);
+            opt.redoThreads = threads;
+            long start = System.nanoTime();
+            DataManager recovered = DataManager.open(PATH, opt, new MockTransactionManager());
+            long elapsed = System.nanoTime() - start;
+            recovered.close();
+            System.out.printf("%d\t%d%n", threads, elapsed / 1000000);
+        }
+        delete(PATH);
+        delete(SNAPSHOT);
+    }
+
+    // 数据库的所有文件：数据文件、空闲空间表和各个日志段
+    private static File[] files(String path) {
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith(path + "."));
+        return files == null ? new File[0] : files;
+    }
+
+    private static void copy(String from, String to) throws Exception {
+        for(File f : files(from)) {
+            File target = new File(to + f.getName().substring(from.length()));
+            Files.copy(f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void delete(String path) {
+        for(File f : files(path)) {
+            f.delete();
+        }
+    }
+
+    private static long size(String prefix) {
+        long size = 0;
+        for(File f : new File(".").listFiles((dir, name) -> name.startsWith(prefix))) {
+            size += f.length();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,70 @@
+package top.guoziyang.mydb.backend.dm.logger;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 日志组提交的吞吐量
+ * 不同的并发写日志线程数、不同的等待窗口下，每秒能落盘的日志条数，每条日志 100 字节
+ * 每次 log() 都要等到日志 fsync 之后才返回，单线程时就是每条日志一次 fsync
+ * 运行 main 即可，参数为每组的运行时间（毫秒，默认 3000），不属于单元测试
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] WRITERS = {1, 2, 4, 8, 16, 32, 64};
+    private static final long[] WINDOWS = {0, 200, 1000};
+
+    public static void main(String[] args) throws Exception {
+        long runMs = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+        System.out.print("writers");
+        for(long window : WINDOWS) {
+            System.out.print("\twindow " + window + "us records/s");
+        }
+        System.out.println();
+        for(int writers : WRITERS) {
+            System.out.print(writers);
+            for(long window : WINDOWS) {
+                System.out.printf("\t%.0f", run(writers, window, runMs));
+            }
+            System.out.println();
+        }
+    }
+
+    private static double run(int writers, long window, long runMs) throws Exception {
+        String path = "group_commit_bench";
+        deleteLog(path);
+        Logger lg = Logger.create(path, window);
+        byte[] record = RandomUtil.randomBytes(100);
+        AtomicLong records = new AtomicLong(0);
+        long deadline = System.currentTimeMillis() + runMs;
+        CountDownLatch done = new CountDownLatch(writers);
+        long start = System.nanoTime();
+        for(int t = 0; t < writers; t ++) {
+            new Thread(() -> {
+                long n = 0;
+                while(System.currentTimeMillis() < deadline) {
+                    lg.log(record);
+                    n ++;
+                }
+                records.addAndGet(n);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        double rate = records.get() * 1e9 / (System.nanoTime() - start);
+        lg.close();
+        deleteLog(path);
+        return rate;
+    }
+
+    // 删除所有日志段
+    private static void deleteLog(String path) {
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith(path + LoggerImpl.LOG_SUFFIX));
+        for(File f : files == null ? new File[0] : files) {
+            f.delete();
+        }
+    }
+}
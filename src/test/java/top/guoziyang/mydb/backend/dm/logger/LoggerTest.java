@@ -1,6 +1,11 @@
 package top.guoziyang.mydb.backend.dm.logger;
 
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -45,4 +50,213 @@ public class LoggerTest {
 
         assert new File("D:\\JavaWorkspace2\\mydbDatabase\\logger_test.log").delete();
     }
+
+    @Test
+    public void testLoggerGroupCommit() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\logger_group_test";
+        Logger lg = Logger.create(path, 100);
+        int threads = 8, perThread = 300;
+        CountDownLatch done = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            int id = t;
+            new Thread(() -> {
+                for(int i = 0; i < perThread; i ++) {
+                    lg.log((id + ":" + i).getBytes());
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        lg.close();
+
+        // 所有日志都完整落盘，校验和正确（open 时会校验 XChecksum）
+        Logger lg2 = Logger.open(path);
+        lg2.rewind();
+        Set<String> logs = new HashSet<>();
+        byte[] log;
+        while((log = lg2.next()) != null) {
+            logs.add(new String(log));
+        }
+        lg2.close();
+        assert logs.size() == threads * perThread;
+        for(int t = 0; t < threads; t ++) {
+            for(int i = 0; i < perThread; i ++) {
+                assert logs.contains(t + ":" + i);
+            }
+        }
+
+        assert new File(path + ".log").delete();
+    }
+
+    @Test
+    public void testLoggerBadTail() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\logger_tail_test";
+        Logger lg = Logger.create(path);
+        lg.log("aaa".getBytes());
+        lg.log("bbb".getBytes());
+        lg.log("ccc".getBytes());
+        lg.close();
+
+        // 模拟崩溃时最后一条日志只写了一半
+        File f = new File(path + ".log");
+        long good = f.length();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(good);
+            raf.writeInt(100);
+            raf.write(new byte[20]);
+        }
+
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert "ccc".equals(new String(lg.next()));
+        assert lg.next() == null;
+        // BadTail 被截断，新的日志接在正常日志之后
+        assert f.length() == good;
+        lg.log("ddd".getBytes());
+        lg.close();
+
+        // 改坏中间一条日志的数据，读到它就停下
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(LoggerImpl.SEG_HEADER_SIZE + 11 + 8);
+            raf.write('x');
+        }
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert f.delete();
+    }
+
+    @Test
+    public void testLoggerSegments() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\logger_segment_test";
+        Logger lg = Logger.create(path, 0, Logger.MIN_SEGMENT_SIZE);
+        // 每段放得下 10 条
+        int n = 35;
+        long[] lsns = new long[n];
+        for(int i = 0; i < n; i ++) {
+            lsns[i] = lg.log(record(i));
+        }
+        for(int i = 1; i < n; i ++) {
+            assert lsns[i] > lsns[i-1];
+        }
+        assert new File(path + ".log.3").exists();
+        assert !new File(path + ".log.4").exists();
+        long end = lg.end();
+        lg.close();
+
+        lg = Logger.open(path);
+        assert lg.end() == end;
+        lg.rewind();
+        for(int i = 0; i < n; i ++) {
+            assert Arrays.equals(record(i), lg.next());
+        }
+        assert lg.next() == null;
+        lg.seek(lsns[30]);
+        assert Arrays.equals(record(30), lg.next());
+        assert lg.lastLsn() == lsns[30];
+        // 按 LSN 读不影响 next() 的位置
+        assert Arrays.equals(record(3), lg.read(lsns[3]));
+        assert Arrays.equals(record(31), lg.next());
+
+        // 回收第 25 条之前的整段，段 0、1 改名留作以后的新段
+        lg.recycle(lsns[25]);
+        assert !new File(path + ".log").exists();
+        assert !new File(path + ".log.1").exists();
+        assert new File(path + ".log.2").exists();
+        lg.rewind();
+        assert Arrays.equals(record(20), lg.next());
+
+        // 继续写，新段复用回收的段
+        for(int i = n; i < n + 10; i ++) {
+            lsns = Arrays.copyOf(lsns, i + 1);
+            lsns[i] = lg.log(record(i));
+        }
+        assert new File(path + ".log.4").exists();
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.seek(lsns[25]);
+        for(int i = 25; i < n + 10; i ++) {
+            assert Arrays.equals(record(i), lg.next());
+        }
+        assert lg.next() == null;
+        lg.recycle(lg.end());
+        lg.close();
+
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        for(File f : dir.listFiles()) {
+            if(f.getName().startsWith(new File(path).getName() + ".log")) {
+                assert f.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testLoggerSegmentExactlyFull() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\logger_full_segment_test";
+        Logger lg = Logger.create(path, 0, Logger.MIN_SEGMENT_SIZE);
+        // 16 条日志（每条 8 字节头）正好写满段 0 的段头之后的空间
+        int perSegment = 16;
+        int dataLen = (Logger.MIN_SEGMENT_SIZE - LoggerImpl.SEG_HEADER_SIZE) / perSegment - 8;
+        assert (dataLen + 8) * perSegment == Logger.MIN_SEGMENT_SIZE - LoggerImpl.SEG_HEADER_SIZE;
+        for(int i = 0; i < perSegment; i ++) {
+            lg.log(fill(i, dataLen));
+        }
+        assert new File(path + ".log").length() == Logger.MIN_SEGMENT_SIZE;
+        // 下一条日志写在段 1 的段头之后
+        long lsn = lg.log(fill(perSegment, 10));
+        assert lsn == Logger.MIN_SEGMENT_SIZE + LoggerImpl.SEG_HEADER_SIZE;
+        lg.close();
+
+        lg = Logger.open(path);
+        assert new File(path + ".log.1").exists();
+        lg.rewind();
+        for(int i = 0; i < perSegment; i ++) {
+            assert Arrays.equals(fill(i, dataLen), lg.next());
+        }
+        assert Arrays.equals(fill(perSegment, 10), lg.next());
+        assert lg.next() == null;
+        lg.close();
+
+        // 段 0 写满、段 1 还没有创建时重新打开，之后的日志同样从段 1 的段头之后写
+        String path2 = path + "2";
+        lg = Logger.create(path2, 0, Logger.MIN_SEGMENT_SIZE);
+        for(int i = 0; i < perSegment; i ++) {
+            lg.log(fill(i, dataLen));
+        }
+        lg.close();
+        lg = Logger.open(path2);
+        assert lg.log(fill(perSegment, 10)) == Logger.MIN_SEGMENT_SIZE + LoggerImpl.SEG_HEADER_SIZE;
+        lg.close();
+        lg = Logger.open(path2);
+        lg.rewind();
+        for(int i = 0; i < perSegment; i ++) {
+            assert Arrays.equals(fill(i, dataLen), lg.next());
+        }
+        assert Arrays.equals(fill(perSegment, 10), lg.next());
+        assert lg.next() == null;
+        lg.close();
+
+        for(String p : new String[]{path, path2}) {
+            assert new File(p + ".log").delete();
+            assert new File(p + ".log.1").delete();
+        }
+    }
+
+    private byte[] fill(int i, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte)i);
+        return data;
+    }
+
+    private byte[] record(int i) {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte)i);
+        return data;
+    }
 }
@@ -0,0 +1,95 @@
+package top.guoziyang.mydb.backend.dm.page;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+public class PageXTest {
+
+    private static byte[] item(int len, int fill) {
+        byte[] data = new byte[len];
+        Arrays.fill(data, (byte)fill);
+        return DataItem.wrapDataItemRaw(data);
+    }
+
+    @Test
+    public void testCompactAndReuse() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw(PageCache.PAGE_SIZE));
+        int full = PageX.getFreeSpace(pg);
+        int a = PageX.insert(pg, item(100, 1));
+        int b = PageX.insert(pg, item(200, 2));
+        int c = PageX.insert(pg, item(300, 3));
+        int used = full - PageX.getFreeSpace(pg);
+
+        // b 置为无效后，空闲空间马上算上 b 的大小和它的槽（可以复用），但要整理之后才能用到
+        pg.getData()[PageX.getOffset(pg, b)] = (byte)1;
+        assert PageX.getFreeSpace(pg) == full - used + 203 + PageX.SLOT_SIZE;
+        int usable = PageX.getUsableSpace(pg);
+        PageX.compact(pg);
+        assert PageX.getUsableSpace(pg) == usable + 203 + PageX.SLOT_SIZE;
+
+        // 槽号不变，a、c 仍能读到，b 的槽引用失效
+        assert pg.getData()[PageX.getOffset(pg, a) + 3] == 1;
+        assert pg.getData()[PageX.getOffset(pg, c) + 3] == 3;
+        assert PageX.getOffset(pg, b) == 0;
+
+        // 空槽被复用，版本号加一，旧的槽引用仍然失效
+        int d = PageX.insert(pg, item(50, 4));
+        assert (d & 0xFFFF) == (b & 0xFFFF) && d != b;
+        assert PageX.getOffset(pg, b) == 0;
+        assert pg.getData()[PageX.getOffset(pg, d) + 3] == 4;
+    }
+
+    @Test
+    public void testSlotGeneration() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw(PageCache.PAGE_SIZE));
+        int a = PageX.insert(pg, item(10, 1));
+        int b = PageX.insert(pg, item(10, 2));
+
+        // 尾部的空槽整理后仍然保留，再插入时版本号接着加一，不会回到 0
+        pg.getData()[PageX.getOffset(pg, b)] = (byte)1;
+        PageX.compact(pg);
+        int c = PageX.insert(pg, item(10, 3));
+        assert (c & 0xFFFF) == (b & 0xFFFF) && c >>> 16 == 1;
+        assert PageX.getOffset(pg, b) == 0;
+
+        // 版本号到达 MAX_GEN 的槽作废，新数据放到新的槽中
+        int d = PageX.slotRef(2, PageX.MAX_GEN);
+        PageX.recoverInsert(pg, item(10, 4), d);
+        pg.getData()[PageX.getOffset(pg, d)] = (byte)1;
+        int usable = PageX.getUsableSpace(pg);
+        PageX.compact(pg);
+        assert PageX.getUsableSpace(pg) == usable + 13;
+        int e = PageX.insert(pg, item(10, 5));
+        assert (e & 0xFFFF) == 3 && e >>> 16 == 0;
+        assert PageX.getOffset(pg, d) == 0;
+        assert pg.getData()[PageX.getOffset(pg, a) + 3] == 1;
+    }
+
+    @Test
+    public void testRecoverInsert() {
+        Page pg = MockPage.newMockPage(2, PageX.initRaw(PageCache.PAGE_SIZE));
+        int a = PageX.slotRef(0, 0);
+        int b = PageX.slotRef(3, 7);
+        byte[] ra = item(10, 1), rb = item(20, 2);
+        // 槽目录不够长时补上空槽，重复恢复是幂等的
+        PageX.recoverInsert(pg, rb, b);
+        PageX.recoverInsert(pg, ra, a);
+        PageX.recoverInsert(pg, rb, b);
+        int fso = PageX.getFSO(pg);
+        PageX.recoverInsert(pg, rb, b);
+        assert PageX.getFSO(pg) == fso;
+        assert pg.getData()[PageX.getOffset(pg, a) + 3] == 1;
+        assert pg.getData()[PageX.getOffset(pg, b) + 3] == 2;
+        assert PageX.getOffset(pg, PageX.slotRef(1, 0)) == 0;
+
+        // 版本不一致的更新被跳过
+        PageX.recoverUpdate(pg, item(20, 9), PageX.slotRef(3, 6));
+        assert pg.getData()[PageX.getOffset(pg, b) + 3] == 2;
+        PageX.recoverUpdate(pg, item(20, 9), b);
+        assert pg.getData()[PageX.getOffset(pg, b) + 3] == 9;
+    }
+}
@@ -0,0 +1,118 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import top.guoziyang.mydb.backend.dm.DMOptions;
+import top.guoziyang.mydb.backend.dm.page.Page;
+
+/**
+ * 普通 I/O 与直接 I/O 的对比
+ * 每种方式重新生成数据文件（用 O_DIRECT 写出，开始时不在操作系统的页缓存中），
+ * 先顺序扫描一遍，再多线程随机读页面，缓冲池为数据文件的一半。
+ * 除吞吐量外还统计操作系统页缓存（/proc/meminfo 的 Cached）的增长：
+ * 普通 I/O 时读过的页面在页缓存里还有一份，直接 I/O 时应基本不增长。
+ * 运行 main 即可，参数为数据文件大小（MB，默认 256），不属于单元测试，只能在 Linux 上运行
+ */
+public class DirectIOBenchmark {
+
+    private static final long RUN_MS = 5000;
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        long sizeMB = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        System.out.println("io\tscan pages/s\trandom pages/s\tos cache growth MB");
+        for(String io : new String[]{PageCache.IO_CHANNEL, PageCache.IO_DIRECT}) {
+            run(io, sizeMB);
+        }
+    }
+
+    private static void run(String io, long sizeMB) throws Exception {
+        String path = "direct_io_bench";
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        f.delete();
+        int pages = prepare(f, sizeMB);
+        DMOptions opt = DMOptions.withMem((sizeMB << 20) / 2);
+        opt.io = io;
+        long cached = osCachedKB();
+
+        PageCache pc = PageCache.open(path, opt);
+        long start = System.nanoTime();
+        for(int i = 1; i <= pages; i ++) {
+            pc.getPage(i).release();
+        }
+        double scan = pages * 1e9 / (System.nanoTime() - start);
+        double random = randomRead(pc, pages);
+        pc.close();
+
+        long growth = (osCachedKB() - cached) >> 10;
+        System.out.printf("%s\t%.0f\t%.0f\t%d%n", io, scan, random, growth);
+        f.delete();
+    }
+
+    // 用直接 I/O 按 1MB 的块写出数据文件
+    private static int prepare(File f, long sizeMB) throws Exception {
+        f.createNewFile();
+        ByteBuffer chunk = DirectPageFile.alignedBuffer(1 << 20);
+        byte[] bytes = new byte[1 << 20];
+        new Random(13331).nextBytes(bytes);
+        chunk.put(bytes);
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT)) {
+            for(long i = 0; i < sizeMB; i ++) {
+                chunk.clear();
+                while(chunk.hasRemaining()) {
+                    fc.write(chunk, (i << 20) + chunk.position());
+                }
+            }
+            fc.force(false);
+        }
+        return (int)(sizeMB * (1 << 20) / PageCache.PAGE_SIZE);
+    }
+
+    private static double randomRead(PageCache pc, int pages) throws Exception {
+        AtomicLong ops = new AtomicLong(0);
+        long deadline = System.currentTimeMillis() + RUN_MS;
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for(int t = 0; t < THREADS; t ++) {
+            long seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                long n = 0;
+                try {
+                    while(System.currentTimeMillis() < deadline) {
+                        Page pg = pc.getPage(random.nextInt(pages) + 1);
+                        pg.release();
+                        n ++;
+                    }
+                } catch(Exception e) {
+                    e.printStackTrace();
+                }
+                ops.addAndGet(n);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return ops.get() * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static long osCachedKB() throws Exception {
+        List<String> lines = Files.readAllLines(Paths.get("/proc/meminfo"));
+        for(String line : lines) {
+            if(line.startsWith("Cached:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return 0;
+    }
+}
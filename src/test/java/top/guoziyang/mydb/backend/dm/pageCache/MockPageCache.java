@@ -52,7 +52,40 @@ public class MockPageCache implements PageCache {
         return noPages.intValue();
     }
 
+    @Override
+    public int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return false;
+    }
+
     @Override
     public void flushPage(Page pg) {}
+
+    @Override
+    public boolean flushDirty(long timeoutMs) {
+        return true;
+    }
+
+    @Override
+    public int getReferences(int pgno) {
+        return 1;
+    }
+
+    @Override
+    public int getCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void prefetch(int pgno, int count) {}
+
+    @Override
+    public boolean isCached(int pgno) {
+        return true;
+    }
     
 }
@@ -0,0 +1,81 @@
+package top.guoziyang.mydb.backend.dm.pageCache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import top.guoziyang.mydb.backend.dm.DMOptions;
+import top.guoziyang.mydb.backend.dm.page.Page;
+
+/**
+ * 多线程随机读页面的吞吐量测试
+ * 缓冲池只有 1MB，绝大部分 getPage() 都会未命中并读文件，测的是并发读盘的能力
+ * 运行 main 即可，参数为数据文件大小（MB，默认 512）和访问方式（channel 或 direct，默认 channel），不属于单元测试
+ */
+public class PageCacheBenchmark {
+
+    private static final long MEM = 1 << 20;
+    private static final long RUN_MS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        long sizeMB = args.length > 0 ? Long.parseLong(args[0]) : 512;
+        DMOptions opt = DMOptions.withMem(MEM);
+        if(args.length > 1) {
+            opt.io = args[1];
+        }
+        String path = "pcache_bench";
+        File f = new File(path + PageCacheImpl.DB_SUFFIX);
+        f.delete();
+        int pages = prepare(f, sizeMB);
+
+        int maxThreads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        System.out.println("threads\tpages/s");
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            PageCache pc = PageCache.open(path, opt);
+            System.out.printf("%d\t%.0f%n", threads, run(pc, pages, threads));
+            pc.close();
+        }
+        f.delete();
+    }
+
+    // 直接按 1MB 的块写出数据文件，避免逐页 newPage() 带来的大量 fsync
+    private static int prepare(File f, long sizeMB) throws Exception {
+        byte[] chunk = new byte[1 << 20];
+        new Random(13331).nextBytes(chunk);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            for(long i = 0; i < sizeMB; i ++) {
+                raf.write(chunk);
+            }
+        }
+        return (int)(sizeMB * (1 << 20) / PageCache.PAGE_SIZE);
+    }
+
+    private static double run(PageCache pc, int pages, int threads) throws Exception {
+        AtomicLong ops = new AtomicLong(0);
+        long deadline = System.currentTimeMillis() + RUN_MS;
+        CountDownLatch done = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t ++) {
+            long seed = t;
+            new Thread(() -> {
+                Random r = new Random(seed);
+                long n = 0;
+                try {
+                    while(System.currentTimeMillis() < deadline) {
+                        Page pg = pc.getPage(r.nextInt(pages) + 1);
+                        pg.release();
+                        n ++;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    ops.addAndGet(n);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        return ops.get() * 1000.0 / RUN_MS;
+    }
+}
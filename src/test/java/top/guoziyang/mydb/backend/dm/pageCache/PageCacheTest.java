@@ -1,6 +1,7 @@
 package top.guoziyang.mydb.backend.dm.pageCache;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
@@ -11,8 +12,10 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 
+import top.guoziyang.mydb.backend.dm.DMOptions;
 import top.guoziyang.mydb.backend.dm.page.Page;
 import top.guoziyang.mydb.backend.utils.Panic;
+import top.guoziyang.mydb.backend.utils.Parser;
 import top.guoziyang.mydb.backend.utils.RandomUtil;
 
 public class PageCacheTest {
@@ -43,6 +46,283 @@ public class PageCacheTest {
         assert new File("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_simple_test0.db").delete();
     }
 
+    @Test
+    public void testPageCacheTruncate() throws Exception {
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE * 50);
+        PageCache pc = PageCache.create("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_truncate_test", opt);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        pc = PageCache.open("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_truncate_test", opt);
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)(i-1);
+            pg.getData()[1] = (byte)i;
+            pg.setDirty(true);
+            pg.release();
+        }
+        // 截断后再增长，新页面不能读到截断前的旧数据
+        pc.truncateByBgno(60);
+        byte[] tmp = new byte[PageCache.PAGE_SIZE];
+        tmp[0] = 100;
+        assert pc.newPage(tmp) == 61;
+        pc.close();
+
+        pc = PageCache.open("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_truncate_test", opt);
+        assert pc.getPageNumber() == 61;
+        for(int i = 1; i <= 60; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)(i-1);
+            assert pg.getData()[1] == (byte)i;
+            pg.release();
+        }
+        Page pg = pc.getPage(61);
+        assert pg.getData()[0] == 100;
+        assert pg.getData()[1] == 0;
+        pg.release();
+        pc.close();
+
+        assert new File("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_truncate_test.db").delete();
+    }
+
+    @Test
+    public void testPageCacheDirect() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\pcacher_direct_test";
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE * 50);
+        opt.io = PageCache.IO_DIRECT;
+        opt.extentSize = PageCache.PAGE_SIZE * 16;
+        opt.readAhead = 8;
+        PageCache pc = PageCache.create(path, opt);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            tmp[PageCache.PAGE_SIZE-1] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        pc = PageCache.open(path, opt);
+        assert pc.getPageNumber() == 100;
+        // 顺序读触发预读，一次读多页
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)(i-1);
+            assert pg.getData()[PageCache.PAGE_SIZE-1] == (byte)(i-1);
+            pg.getData()[1] = (byte)i;
+            pg.setDirty(true);
+            pg.release();
+        }
+        pc.truncateByBgno(60);
+        pc.close();
+
+        pc = PageCache.open(path, opt);
+        assert pc.getPageNumber() == 60;
+        for(int i = 1; i <= 60; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)(i-1);
+            assert pg.getData()[1] == (byte)i;
+            pg.release();
+        }
+        pc.close();
+
+        assert new File(path+".db").delete();
+    }
+
+    @Test
+    public void testPageCacheCompressed() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\pcacher_compress_test";
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE * 50);
+        opt.compress = true;
+        opt.extentSize = PageCache.PAGE_SIZE * 16;
+        PageCache pc = PageCache.create(path, opt);
+        // 每 4 页中有一页是随机数据，压不小，其余几乎全为 0
+        byte[][] expected = new byte[201][];
+        for(int i = 1; i <= 200; i ++) {
+            byte[] tmp = i % 4 != 1 ? new byte[PageCache.PAGE_SIZE] : RandomUtil.randomBytes(PageCache.PAGE_SIZE);
+            tmp[0] = (byte)i;
+            expected[i] = tmp;
+            assert pc.newPage(tmp) == i;
+        }
+        pc.close();
+
+        pc = PageCache.open(path, opt);
+        assert pc.getPageNumber() == 200;
+        for(int i = 1; i <= 200; i ++) {
+            Page pg = pc.getPage(i);
+            assert Arrays.equals(pg.getData(), expected[i]);
+            // 改写后压缩长度变化，要换一个槽存放
+            if(i % 4 == 0) {
+                pg.getData()[100] = (byte)i;
+                System.arraycopy(RandomUtil.randomBytes(1000), 0, pg.getData(), 1000, 1000);
+                System.arraycopy(pg.getData(), 0, expected[i], 0, PageCache.PAGE_SIZE);
+                pg.setDirty(true);
+            }
+            pg.release();
+        }
+        pc.truncateByBgno(150);
+        pc.close();
+
+        pc = PageCache.open(path, opt);
+        assert pc.getPageNumber() == 150;
+        for(int i = 1; i <= 150; i ++) {
+            Page pg = pc.getPage(i);
+            assert Arrays.equals(pg.getData(), expected[i]);
+            pg.release();
+        }
+        pc.close();
+
+        // 大部分页面几乎全为 0，文件应明显小于不压缩时的大小
+        long size = new File(path+".db").length();
+        assert size < 150L * PageCache.PAGE_SIZE / 2;
+
+        assert new File(path+".db").delete();
+        assert new File(path+CompressedPageFile.MAP_SUFFIX).delete();
+    }
+
+    @Test
+    public void testLZ4Codec() {
+        byte[] src = new byte[PageCache.PAGE_SIZE];
+        for(int i = 0; i < src.length; i ++) {
+            src[i] = (byte)(i % 7 == 0 ? random.nextInt() : i / 64);
+        }
+        byte[] compressed = new byte[src.length];
+        int len = LZ4Codec.compress(src, src.length, compressed);
+        assert len > 0 && len < src.length;
+        byte[] dst = new byte[src.length];
+        assert LZ4Codec.decompress(compressed, len, dst) == src.length;
+        assert Arrays.equals(src, dst);
+
+        // 随机数据压不小，放不下时返回 -1
+        byte[] noise = RandomUtil.randomBytes(src.length);
+        assert LZ4Codec.compress(noise, noise.length, new byte[src.length - 512]) == -1;
+    }
+
+    @Test
+    public void testCompressedMapTornEntry() throws Exception {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\pcacher_torn_map_test";
+        int pages = 40;
+        byte[][] expected = new byte[pages + 1][];
+        RandomAccessFile raf = new RandomAccessFile(path+".db", "rw");
+        CompressedPageFile pf = CompressedPageFile.open(path, raf, raf.getChannel(), PageCache.PAGE_SIZE);
+        for(int version = 1; version <= 3; version ++) {
+            for(int pgno = 1; pgno <= pages; pgno ++) {
+                byte[] page = new byte[PageCache.PAGE_SIZE];
+                page[0] = (byte)pgno;
+                page[1] = (byte)version;
+                // 每个版本压缩后的长度不同，要换一个槽存放
+                System.arraycopy(RandomUtil.randomBytes(500 * version), 0, page, 100, 500 * version);
+                pf.write(pgno, page);
+                if(version == 2 || pgno == 1) {
+                    expected[pgno] = page;
+                }
+            }
+            // 第三个版本只写了数据，第三次 force() 写映射表时崩溃
+            if(version < 3) {
+                pf.force();
+            }
+        }
+
+        // 第三次 force() 写的是第 1 份映射表：一个映射项写了一半，Header 也没写完整
+        RandomAccessFile map = new RandomAccessFile(path+CompressedPageFile.MAP_SUFFIX, "rw");
+        map.seek(CompressedPageFile.entryPosition(1, 33));
+        map.write(RandomUtil.randomBytes(10));
+        map.seek(CompressedPageFile.headerPosition(1));
+        map.write(Parser.long2Byte(3));
+        map.write(Parser.int2Byte(pages));
+        map.close();
+        raf.close();
+
+        // 用第二次 force() 写的第 0 份映射表
+        for(int i = 0; i < 2; i ++) {
+            raf = new RandomAccessFile(path+".db", "rw");
+            pf = CompressedPageFile.open(path, raf, raf.getChannel(), PageCache.PAGE_SIZE);
+            assert pf.length() == (long)pages * PageCache.PAGE_SIZE;
+            for(int pgno = 1; pgno <= pages; pgno ++) {
+                byte[] page = new byte[PageCache.PAGE_SIZE];
+                pf.read(pgno, page);
+                assert Arrays.equals(page, expected[pgno]);
+            }
+            // 关闭时把映射表完整地写到第 1 份，再打开仍是同样的内容
+            pf.close();
+        }
+
+        assert new File(path+".db").delete();
+        assert new File(path+CompressedPageFile.MAP_SUFFIX).delete();
+    }
+
+    @Test
+    public void testPageCacheExtent() throws Exception {
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE * 50);
+        opt.extentSize = PageCache.PAGE_SIZE * 64;
+        PageCache pc = PageCache.create("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_extent_test", opt);
+        for(int i = 0 ; i < 100; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)(i+1);
+            assert pc.newPage(tmp) == i+1;
+        }
+        assert pc.getPageNumber() == 100;
+        pc.close();
+
+        // 文件按 64 页一次增长，预分配的尾部不算作页面
+        File f = new File("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_extent_test.db");
+        assert f.length() == PageCache.PAGE_SIZE * 128L;
+        pc = PageCache.open("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_extent_test", opt);
+        assert pc.getPageNumber() == 100;
+        for(int i = 1; i <= 100; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)i;
+            pg.release();
+        }
+        assert pc.newPage(new byte[PageCache.PAGE_SIZE]) == 101;
+        pc.close();
+
+        assert f.delete();
+    }
+
+    @Test
+    public void testPageCacheReadAhead() throws Exception {
+        DMOptions opt = DMOptions.withMem(PageCache.PAGE_SIZE * 64);
+        opt.readAhead = 16;
+        PageCache pc = PageCache.create("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_readahead_test", opt);
+        for(int i = 0 ; i < 300; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            tmp[0] = (byte)i;
+            pc.newPage(tmp);
+        }
+        pc.close();
+
+        // 顺序扫描两遍，中间穿插随机访问，预读的页面与直接读到的一致
+        pc = PageCache.open("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_readahead_test", opt);
+        pc.prefetch(1, 16);
+        for(int k = 0; k < 2; k ++) {
+            for(int i = 1; i <= 300; i ++) {
+                Page pg = pc.getPage(i);
+                assert pg.getData()[0] == (byte)(i-1);
+                pg.release();
+                if(i % 50 == 0) {
+                    int pgno = random.nextInt(300) + 1;
+                    pg = pc.getPage(pgno);
+                    assert pg.getData()[0] == (byte)(pgno-1);
+                    pg.release();
+                }
+            }
+        }
+        pc.close();
+
+        assert new File("D:\\JavaWorkspace2\\mydbDatabase\\pcacher_readahead_test.db").delete();
+    }
+
+    @Test
+    public void testCapacity() {
+        assert PageCache.capacity(PageCache.PAGE_SIZE * 50, PageCache.PAGE_SIZE) == 50;
+        assert PageCache.capacity(4L << 30, PageCache.PAGE_SIZE) == 1 << 19;
+        assert PageCache.capacity(32L << 30, PageCache.PAGE_SIZE) == 1 << 22;
+    }
+
     private PageCache pc1;
     private CountDownLatch cdl1;
     private AtomicInteger noPages1;
@@ -0,0 +1,38 @@
+package top.guoziyang.mydb.backend.dm.pageIndex;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
+
+public class FreeSpaceMapTest {
+    @Test
+    public void testFreeSpaceMap() {
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\fsm_test";
+        FreeSpaceMap fsm = FreeSpaceMap.create(path, PageCache.PAGE_SIZE);
+        int threshold = PageCache.PAGE_SIZE / 20;
+        for(int i = 2; i <= 21; i ++) {
+            fsm.set(i, (i-2)*threshold);
+        }
+        fsm.flush(21);
+        fsm.close();
+
+        // 页数对不上时不可用
+        fsm = FreeSpaceMap.open(path, PageCache.PAGE_SIZE);
+        assert !fsm.load(22, new PageIndex(PageCache.PAGE_SIZE));
+
+        PageIndex pIndex = new PageIndex(PageCache.PAGE_SIZE);
+        assert fsm.load(21, pIndex);
+        fsm.close();
+        for(int i = 0; i < 19; i ++) {
+            PageInfo pi = pIndex.select(i * threshold);
+            assert pi != null;
+            assert pi.pgno == i+3;
+            // 记录的空闲空间只会偏小
+            assert pi.freeSpace <= (i+1)*threshold;
+        }
+
+        assert new File(path + FreeSpaceMap.FSM_SUFFIX).delete();
+    }
+}
@@ -1,5 +1,8 @@
 package top.guoziyang.mydb.backend.dm.pageIndex;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
@@ -7,7 +10,7 @@ import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 public class PageIndexTest {
     @Test
     public void testPageIndex() {
-        PageIndex pIndex = new PageIndex();
+        PageIndex pIndex = new PageIndex(PageCache.PAGE_SIZE);
         int threshold = PageCache.PAGE_SIZE / 20;
         for(int i = 0; i < 20; i ++) {
             pIndex.add(i, i*threshold);
@@ -23,4 +26,26 @@ public class PageIndexTest {
             }
         }
     }
+
+    @Test
+    public void testPageIndexPreferred() {
+        PageIndex pIndex = new PageIndex(PageCache.PAGE_SIZE);
+        for(int i = 1; i <= 6; i ++) {
+            pIndex.add(i, PageCache.PAGE_SIZE / 2);
+        }
+        // 偏好偶数页，候选中有偶数页时先返回偶数页，其余页面不会丢
+        Set<Integer> got = new HashSet<>();
+        for(int i = 0; i < 3; i ++) {
+            PageInfo pi = pIndex.select(100, pgno -> pgno % 2 == 0);
+            assert pi.pgno % 2 == 0;
+            got.add(pi.pgno);
+        }
+        for(int i = 0; i < 3; i ++) {
+            PageInfo pi = pIndex.select(100, pgno -> pgno % 2 == 0);
+            assert pi.pgno % 2 == 1;
+            got.add(pi.pgno);
+        }
+        assert got.size() == 6;
+        assert pIndex.select(100, pgno -> true) == null;
+    }
 }
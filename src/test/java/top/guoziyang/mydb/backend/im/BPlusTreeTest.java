@@ -14,7 +14,8 @@ public class BPlusTreeTest {
     @Test
     public void testTreeSingle() throws Exception {
         TransactionManager tm = new MockTransactionManager();
-        DataManager dm = DataManager.create("D:\\JavaWorkspace2\\mydbDatabase\\TestTreeSingle", PageCache.PAGE_SIZE*10, tm);
+        String path = "D:\\JavaWorkspace2\\mydbDatabase\\TestTreeSingle";
+        DataManager dm = DataManager.create(path, PageCache.PAGE_SIZE*10, tm);
 
         long root = BPlusTree.create(dm);
         BPlusTree tree = BPlusTree.load(root, dm);
@@ -30,7 +31,13 @@ public class BPlusTreeTest {
             assert uids.get(0) == i;
         }
 
-        assert new File("D:\\JavaWorkspace2\\mydbDatabase\\TestTreeSingle.db").delete();
-        assert new File("D:\\JavaWorkspace2\\mydbDatabase\\TestTreeSingle.log").delete();
+        dm.close();
+        // 日志可能已经换到 TestTreeSingle.log.1 等后续段，把同名前缀的文件都删掉
+        File base = new File(path).getAbsoluteFile();
+        for(File f : base.getParentFile().listFiles()) {
+            if(f.getName().startsWith(base.getName() + ".")) {
+                assert f.delete();
+            }
+        }
     }
 }
@@ -0,0 +1,87 @@
+package top.guoziyang.mydb.backend.im;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import top.guoziyang.mydb.backend.dm.DMOptions;
+import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.dataItem.DataItem;
+import top.guoziyang.mydb.backend.tm.MockTransactionManager;
+import top.guoziyang.mydb.backend.tm.TransactionManager;
+import top.guoziyang.mydb.backend.utils.RandomUtil;
+
+/**
+ * 不同页面大小下的扫描与点查吞吐量
+ * 每种页面大小建一个库，插入 N 条 100 字节的记录并建索引，重新打开后
+ * 扫描：按索引取出全部 uid 并逐条读取；点查：随机 key 查索引再读取记录
+ * 缓冲池的内存大小相同，页面越大能缓存的页数越少
+ * 运行 main 即可，参数为记录数（默认 100000）、缓冲池内存 MB（默认 4），不属于单元测试
+ */
+public class PageSizeBenchmark {
+
+    private static final int LOOKUPS = 100000;
+    private static final int SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long mem = (args.length > 1 ? Long.parseLong(args[1]) : 4) << 20;
+        System.out.println("pageSize\tscan rows/s\tlookups/s\tfile KB");
+        for(int pageSize : new int[]{1 << 12, 1 << 13, 1 << 14, 1 << 15}) {
+            run(pageSize, rows, mem);
+        }
+    }
+
+    private static void run(int pageSize, int rows, long mem) throws Exception {
+        String path = "page_size_bench";
+        delete(path);
+        TransactionManager tm = new MockTransactionManager();
+        DMOptions opt = DMOptions.withMem(mem);
+        opt.pageSize = pageSize;
+        DataManager dm = DataManager.create(path, opt, tm);
+        long bootUid = BPlusTree.create(dm);
+        BPlusTree tree = BPlusTree.load(bootUid, dm);
+        for(int i = 0; i < rows; i ++) {
+            long uid = dm.insert(0, RandomUtil.randomBytes(100));
+            tree.insert(i, uid);
+        }
+        tree.close();
+        dm.close();
+
+        dm = DataManager.open(path, DMOptions.withMem(mem), tm);
+        tree = BPlusTree.load(bootUid, dm);
+
+        long start = System.nanoTime();
+        long read = 0;
+        for(int s = 0; s < SCANS; s ++) {
+            List<Long> uids = tree.searchRange(0, Long.MAX_VALUE);
+            for(long uid : uids) {
+                DataItem di = dm.read(uid);
+                di.release();
+                read ++;
+            }
+        }
+        double scan = read * 1e9 / (System.nanoTime() - start);
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for(int i = 0; i < LOOKUPS; i ++) {
+            List<Long> uids = tree.search(random.nextInt(rows));
+            DataItem di = dm.read(uids.get(0));
+            di.release();
+        }
+        double lookup = LOOKUPS * 1e9 / (System.nanoTime() - start);
+
+        tree.close();
+        dm.close();
+        long fileKB = new File(path + ".db").length() >> 10;
+        System.out.printf("%dK\t%.0f\t%.0f\t%d%n", pageSize >> 10, scan, lookup, fileKB);
+        delete(path);
+    }
+
+    private static void delete(String path) {
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".fsm").delete();
+    }
+}
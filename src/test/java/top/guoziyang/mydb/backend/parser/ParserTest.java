@@ -71,6 +71,17 @@ public class ParserTest {
         System.out.println("======================");
     }
 
+    @Test
+    public void testInsertMultiRow() throws Exception {
+        String stat = "insert into student values 5 \"Guo Ziyang\" 22, 6 ',' 23";
+        Insert insert = (Insert)Parser.Parse(stat.getBytes());
+        // 逗号分隔多行，引号中的逗号是值
+        assert insert.values.length == 2;
+        assert "Guo Ziyang".equals(insert.values[0][1]);
+        assert ",".equals(insert.values[1][1]);
+        assert "23".equals(insert.values[1][2]);
+    }
+
     @Test
     public void testDelete() throws Exception {
         String stat = "delete from student where name = \"Guo Ziyang\"";
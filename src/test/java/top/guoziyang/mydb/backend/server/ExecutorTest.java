@@ -6,6 +6,7 @@ import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 
 import top.guoziyang.mydb.backend.dm.DataManager;
+import top.guoziyang.mydb.backend.dm.pageCache.PageCache;
 import top.guoziyang.mydb.backend.tbm.TableManager;
 import top.guoziyang.mydb.backend.tm.TransactionManager;
 import top.guoziyang.mydb.backend.vm.VersionManager;
@@ -17,7 +18,18 @@ public class ExecutorTest {
     byte[] CREATE_TABLE = "create table test_table id int32 (index id)".getBytes();
     byte[] INSERT = "insert into test_table values 2333".getBytes();
 
+    // 日志写满一段后还有 mydb.log.1 等文件，要把 path 开头的文件全部删掉
+    private void deleteFiles() {
+        File dir = new File(path).getAbsoluteFile().getParentFile();
+        for(File f : dir.listFiles()) {
+            if(f.getName().startsWith(new File(path).getName() + ".")) {
+                f.delete();
+            }
+        }
+    }
+
     private Executor testCreate() throws Exception {
+        deleteFiles();
         TransactionManager tm = TransactionManager.create(path);
         DataManager dm = DataManager.create(path, mem, tm);
         VersionManager vm = VersionManager.newVersionManager(tm, dm);
@@ -38,10 +50,7 @@ public class ExecutorTest {
     public void testInsert10000() throws Exception {
         Executor exe = testCreate();
         testInsert(exe, 10000, 1);
-        new File(path + ".db").delete();
-        new File(path + ".bt").delete();
-        new File(path + ".log").delete();
-        new File(path + ".xid").delete();
+        deleteFiles();
     }
 
     private void testMultiInsert(int total, int noWorkers) throws Exception {
@@ -70,9 +79,55 @@ public class ExecutorTest {
     @Test
     public void test100000With4() throws Exception {
         testMultiInsert(10000, 4);
-        new File(path + ".db").delete();
-        new File(path + ".bt").delete();
-        new File(path + ".log").delete();
-        new File(path + ".xid").delete();
+        deleteFiles();
+    }
+
+    @Test
+    public void testInsertMultiRow() throws Exception {
+        Executor exe = testCreate();
+        exe.execute("create table multi_table id int32, name string (index id)".getBytes());
+        exe.execute("insert into multi_table values 1 a, 2 ',', 3 c".getBytes());
+        assert "[1, a]\n[2, ,]\n[3, c]\n".equals(new String(exe.execute("select * from multi_table where id > 0".getBytes())));
+        deleteFiles();
+    }
+
+    @Test
+    public void testOverflowString() throws Exception {
+        Executor exe = testCreate();
+        exe.execute("create table big_table id int32, body string (index id)".getBytes());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append((char)('a' + i % 26));
+        }
+        String body = sb.toString();
+        exe.execute(("insert into big_table values 1 '" + body + "'").getBytes());
+        assert "[1]\n".equals(new String(exe.execute("select id from big_table where id = 1".getBytes())));
+        assert ("[" + body + "]\n").equals(new String(exe.execute("select body from big_table where id = 1".getBytes())));
+
+        // 更新其他列时新行沿用原来的溢出链
+        exe.execute("update big_table set id = 2 where id = 1".getBytes());
+        assert ("[2, " + body + "]\n").equals(new String(exe.execute("select * from big_table where id = 2".getBytes())));
+
+        deleteFiles();
+    }
+
+    @Test
+    public void testUpdateReclaimsSpace() throws Exception {
+        Executor exe = testCreate();
+        exe.execute("create table hot_table id int32, body string (index id)".getBytes());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            sb.append('x');
+        }
+        String body = sb.toString();
+        exe.execute(("insert into hot_table values 1 " + body).getBytes());
+        for (int i = 0; i < 50; i++) {
+            exe.execute(("update hot_table set body = " + body.substring(i % 10) + " where id = 1").getBytes());
+        }
+        assert ("[1, " + body.substring(49 % 10) + "]\n").equals(new String(exe.execute("select * from hot_table where id = 1".getBytes())));
+        // 旧版本被回收，空间在页内整理后复用，不回收的话 50 个版本要占十来页
+        assert new File(path + ".db").length() <= 5L * PageCache.PAGE_SIZE;
+
+        deleteFiles();
     }
 }